@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.eclipse.birt.core.framework.Platform;
+import org.eclipse.birt.report.engine.api.*;
+import org.jboss.bpm.report.util.BirtUtil;
+import org.jboss.bpm.report.util.FileUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks that need a report engine. The BIRT runtime is taken from the
+ * <code>birt.home</code> system property. Each benchmark runs in it's own fork,
+ * so the engine is started once per fork.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class EngineBenchmarks
+{
+  /**
+   * Parameter definitions of a design with static parameters.
+   */
+  @State(Scope.Benchmark)
+  public static class ParameterState
+  {
+    IReportEngine engine;
+    IReportRunnable design;
+    IGetParameterDefinitionTask task;
+    List<IScalarParameterDefn> scalars = new ArrayList<IScalarParameterDefn>();
+    List<IParameterGroupDefn> groups = new ArrayList<IParameterGroupDefn>();
+
+    @Setup
+    public void setup() throws Exception
+    {
+      File reportDir = createReportDir("parameters.rptdesign");
+
+      engine = BirtEngineFactory.newInstance(newConfig(reportDir));
+      design = engine.openReportDesign(new File(reportDir, "parameters.rptdesign").getAbsolutePath());
+      task = engine.createGetParameterDefinitionTask(design);
+
+      for(Object o : task.getParameterDefns(true))
+      {
+        if(o instanceof IParameterGroupDefn)
+        {
+          for(Object scalar : ((IParameterGroupDefn)o).getContents())
+          {
+            scalars.add((IScalarParameterDefn)scalar);
+            groups.add((IParameterGroupDefn)o);
+          }
+        }
+        else
+        {
+          scalars.add((IScalarParameterDefn)o);
+          groups.add(null);
+        }
+      }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+      task.close();
+      engine.destroy();
+      Platform.shutdown();
+    }
+  }
+
+  /**
+   * A service with the sample report.
+   */
+  @State(Scope.Benchmark)
+  public static class ServiceState
+  {
+    @Param({"HTML", "PDF"})
+    String format;
+
+    BirtService service;
+    File reportDir;
+
+    @Setup
+    public void setup() throws Exception
+    {
+      reportDir = createReportDir("sample.rptdesign");
+      service = new BirtService(newConfig(reportDir));
+      service.create();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+      service.destroy();
+      FileUtil.delete(reportDir);
+    }
+  }
+
+  @Benchmark
+  public void loadParameterDetails(ParameterState state, Blackhole blackhole)
+  {
+    for(int i=0; i<state.scalars.size(); i++)
+    {
+      blackhole.consume(
+          BirtUtil.loadParameterDetails(state.task, state.scalars.get(i), state.design, state.groups.get(i))
+      );
+    }
+  }
+
+  @Benchmark
+  public void runAndRender(ServiceState state)
+  {
+    RenderMetaData metaData = new RenderMetaData(
+        EngineBenchmarks.class.getClassLoader(), "sample.rptdesign",
+        RenderMetaData.Format.valueOf(state.format), "http://localhost/report/view/image"
+    );
+    state.service.runAndRender(metaData, new DiscardingOutputStream());
+  }
+
+  private static IntegrationConfig newConfig(File reportDir)
+  {
+    String birtHome = System.getProperty("birt.home");
+    if(null==birtHome || birtHome.trim().length()==0)
+      throw new IllegalStateException("Please point -Dbirt.home to a BIRT runtime");
+
+    IntegrationConfig iConfig = new IntegrationConfig();
+    iConfig.setBirtHome(birtHome);
+    iConfig.setReportDir(reportDir.getAbsolutePath() + File.separator);
+    iConfig.setOutputDir(new File(reportDir, "output").getAbsolutePath() + File.separator);
+    return iConfig;
+  }
+
+  /* a scratch report directory with the given designs from the classpath */
+  private static File createReportDir(String... designs) throws Exception
+  {
+    File reportDir = File.createTempFile("benchmark", "");
+    reportDir.delete();
+    reportDir.mkdirs();
+    new File(reportDir, "output").mkdirs();
+
+    for(String design : designs)
+    {
+      InputStream in = EngineBenchmarks.class.getResourceAsStream("/" + design);
+      OutputStream out = new FileOutputStream(new File(reportDir, design));
+      try
+      {
+        byte[] buffer = new byte[8192];
+        int n;
+        while((n = in.read(buffer)) != -1)
+          out.write(buffer, 0, n);
+      }
+      finally
+      {
+        FileUtil.close(in);
+        FileUtil.close(out);
+      }
+    }
+    return reportDir;
+  }
+
+  private static class DiscardingOutputStream extends OutputStream
+  {
+    public void write(int b)
+    {
+    }
+
+    public void write(byte[] b, int off, int len)
+    {
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.jboss.bpm.report.model.ReportParameter;
+import org.jboss.bpm.report.model.ReportReference;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parameter handling on every render request: parsing the request body
+ * and converting the values to the types the engine expects.
+ *
+ * @see ReportFacade#convertRequestParametersToMap(HttpServletRequest)
+ * @see BirtService#unmarshalParameters(ReportReference, Map)
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParameterBenchmarks
+{
+  private static final ReportParameter.DataType[] TYPES = {
+      ReportParameter.DataType.STRING, ReportParameter.DataType.NUMBER,
+      ReportParameter.DataType.DATETIME, ReportParameter.DataType.BOOLEAN
+  };
+
+  @Param({"4", "32"})
+  int parameterCount;
+
+  private ReportReference reportRef;
+  private Map<String,String> values;
+  private HttpServletRequest request;
+
+  @Setup
+  public void setup()
+  {
+    reportRef = new ReportReference("benchmark.rptdesign");
+    values = new HashMap<String,String>();
+    StringBuilder body = new StringBuilder();
+
+    for(int i=0; i<parameterCount; i++)
+    {
+      ReportParameter.DataType type = TYPES[i % TYPES.length];
+      ReportParameter param = new ReportParameter("param" + i, ReportParameter.Type.TEXTBOX);
+      param.setDataType(type);
+      reportRef.getParameterMetaData().add(param);
+
+      String value = sampleValue(type, i);
+      values.put(param.getName(), value);
+      body.append(param.getName()).append('=').append(value).append(';');
+    }
+
+    request = newRequest(body.toString());
+  }
+
+  @Benchmark
+  public Map<String,Object> unmarshalParameters()
+  {
+    return BirtService.unmarshalParameters(reportRef, values);
+  }
+
+  @Benchmark
+  public Map<String,String> convertRequestParameters()
+  {
+    return ReportFacade.convertRequestParametersToMap(request);
+  }
+
+  private static String sampleValue(ReportParameter.DataType type, int i)
+  {
+    switch(type)
+    {
+      case NUMBER:
+        return String.valueOf(1000 + i);
+      case DATETIME:
+        return "2009-03-" + (10 + i % 20);
+      case BOOLEAN:
+        return String.valueOf(i % 2 == 0);
+      default:
+        return "value-" + i;
+    }
+  }
+
+  /* a request that hands out the same body on every call */
+  private static HttpServletRequest newRequest(final String body)
+  {
+    return (HttpServletRequest)Proxy.newProxyInstance(
+        ParameterBenchmarks.class.getClassLoader(),
+        new Class[] {HttpServletRequest.class},
+        new InvocationHandler()
+        {
+          public Object invoke(Object proxy, Method method, Object[] args)
+          {
+            if(method.getName().equals("getReader"))
+              return new BufferedReader(new StringReader(body));
+            throw new UnsupportedOperationException(method.getName());
+          }
+        }
+    );
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.annotation.Annotation;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serving rendered output: streaming files to the client
+ * and printing report designs.
+ *
+ * @see FileWriter
+ * @see DOMWriter
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class OutputBenchmarks
+{
+  @Param({"16384", "1048576"})
+  int fileSize;
+
+  private File file;
+  private FileWriter fileWriter = new FileWriter();
+  private OutputStream discard = new DiscardingOutputStream();
+
+  private Document design;
+  private StringWriter printed = new StringWriter();
+
+  @Setup
+  public void setup() throws Exception
+  {
+    // same content on every run
+    byte[] content = new byte[fileSize];
+    new Random(42).nextBytes(content);
+
+    file = File.createTempFile("benchmark", ".pdf");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    try
+    {
+      out.write(content);
+    }
+    finally
+    {
+      out.close();
+    }
+
+    InputStream in = getClass().getResourceAsStream("/sample.rptdesign");
+    try
+    {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      design = factory.newDocumentBuilder().parse(in);
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    file.delete();
+  }
+
+  @Benchmark
+  public void writeFile() throws Exception
+  {
+    fileWriter.writeTo(file, File.class, File.class, new Annotation[0], null, null, discard);
+  }
+
+  @Benchmark
+  public void writeFileRange() throws Exception
+  {
+    FileRange range = new FileRange(file, fileSize / 4, fileSize / 2);
+    fileWriter.writeTo(range, FileRange.class, FileRange.class, new Annotation[0], null, null, discard);
+  }
+
+  @Benchmark
+  public int printDesign()
+  {
+    printed.getBuffer().setLength(0);
+    new DOMWriter(printed).setPrettyprint(true).print(design);
+    return printed.getBuffer().length();
+  }
+
+  /* like a client that reads as fast as it can */
+  private static class DiscardingOutputStream extends OutputStream
+  {
+    public void write(int b)
+    {
+    }
+
+    public void write(byte[] b, int off, int len)
+    {
+    }
+  }
+}
@@ -25,16 +25,33 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.eclipse.birt.core.framework.Platform;
 import org.eclipse.birt.report.engine.api.*;
+import org.jboss.bpm.report.metrics.RenderListener;
+import org.jboss.bpm.report.metrics.RenderMetrics;
+import org.jboss.bpm.report.metrics.ReportMetrics;
 import org.jboss.bpm.report.model.ReportParameter;
 import org.jboss.bpm.report.model.ReportReference;
 import org.jboss.bpm.report.util.BirtUtil;
+import org.jboss.bpm.report.util.CountingOutputStream;
+import org.jboss.bpm.report.util.ExpiringMemo;
+import org.jboss.bpm.report.worker.WorkerPool;
+import org.jboss.bpm.report.worker.WorkerRequest;
+import org.jboss.bpm.report.util.FileUtil;
 
+import javax.management.MBeanServer;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Core BIRT service component. Requires to step through the lifecycle
@@ -54,15 +71,40 @@ public class BirtService
 {
   private static final Log log = LogFactory.getLog(BirtService.class);
 
+  /* how long a listing of the reports waits for meta data that is being extracted */
+  private static final long REFERENCES_WAIT = 2000;
+
   private IReportEngine engine;
   private IntegrationConfig iConfig;
 
   private enum State  {NONE, CREATED, STARTED, STOPPED, DESTROYED};
-  private State currentState = State.NONE;
+  private volatile State currentState = State.NONE;
+
+  /* replaced as a whole when designs are reloaded */
+  private volatile Catalogue catalogue = new Catalogue();
+
+  private DocumentCache documentCache;
+
+  private OutputStore outputStore;
 
-  private Map<String, IReportRunnable> cache = new ConcurrentHashMap<String, IReportRunnable>();
+  /* report, group and parent values -> selection list of a cascading parameter */
+  private ExpiringMemo<List<String>, Map<String,String>> selectionLists;
 
-  private Map<String, ReportReference> reports = new ConcurrentHashMap<String, ReportReference>();
+  /* renders in progress, shared by concurrent requests for the same document */
+  private ConcurrentMap<String, Flight> rendersInFlight = new ConcurrentHashMap<String, Flight>();
+
+  private RenderScheduler renderScheduler;
+  private RenderTimeouts renderTimeouts;
+  private ScheduledExecutorService watchdog;
+  private ScheduledExecutorService housekeeping;
+
+  private JobManager jobManager;
+  private PrerenderScheduler prerenderScheduler;
+  private DesignWatcher designWatcher;
+  private MetaDataSnapshot metaDataSnapshot;
+  private WorkerPool workerPool;
+  private RenderLeases renderLeases;
+  private RenderMetrics metrics;
 
   public BirtService(IntegrationConfig iConfig)
   {
@@ -75,8 +117,28 @@ public class BirtService
     if(currentState!=State.NONE)
       throw new IllegalStateException("Service already in state " + currentState);
 
-    synchronized(reports)
+    synchronized(this)
     {
+      if(currentState==State.DESTROYED)
+      {
+        log.info("Service destroyed before it was created");
+        return;
+      }
+
+      // metrics are recorded from the start, including the meta data extraction
+      this.metrics = new RenderMetrics(
+          new RenderMetrics.Gauge()
+          {
+            public long getValue()
+            {
+              return renderScheduler!=null ? renderScheduler.getQueueSize() : 0;
+            }
+          }
+      );
+      MBeanServer mbeanServer = JMXServerConfig.getDefaultMBeanServer();
+      metrics.register(mbeanServer!=null ? mbeanServer : ManagementFactory.getPlatformMBeanServer());
+      metrics.setListener(createRenderListener());
+
       this.engine = BirtEngineFactory.newInstance(iConfig);
 
       // parse template config
@@ -86,16 +148,139 @@ public class BirtService
 
       try
       {
+        // parameter meta data is extracted on first access, unless preloaded
         loadReports();
-        extractParameterMetaData();
+
+        this.metaDataSnapshot = new MetaDataSnapshot(
+            new File(iConfig.getOutputDir(), MetaDataSnapshot.SNAPSHOT_FILE)
+        );
+        metaDataSnapshot.load();
+        metaDataSnapshot.retain(catalogue.reports.keySet());
+        if(iConfig.getPreloadThreads() > 0)
+          preloadReports(iConfig.getPreloadThreads());
+        metaDataSnapshot.save();
       }
       catch (Exception e)
       {
         throw new RuntimeException("Failed to load reports", e);
       }
 
+      this.selectionLists = new ExpiringMemo<List<String>, Map<String,String>>(iConfig.getSelectionListMaxAge());
+
+      this.outputStore = new OutputStore(iConfig);
+      this.documentCache = new DocumentCache(
+          new File(iConfig.getDocumentDirectory()),
+          iConfig.getDocumentCacheMaxAge(), iConfig.getDocumentCacheMaxSize(),
+          outputStore
+      );
+      documentCache.setShared(iConfig.isSharedOutput(), iConfig.getNodeId());
+      outputStore.setShared(iConfig.isSharedOutput());
+      documentCache.load();
+      outputStore.setDocumentCache(documentCache);
+
+      if(iConfig.isSharedOutput())
+      {
+        this.renderLeases = new RenderLeases(
+            new File(iConfig.getOutputDir(), "leases"), iConfig.getNodeId(), iConfig.getLeaseTimeout()
+        );
+        renderLeases.start();
+      }
+
+      if(iConfig.getWorkerProcesses() > 0)
+      {
+        this.workerPool = new WorkerPool(iConfig);
+        workerPool.start();
+      }
+
+      this.renderScheduler = new RenderScheduler(
+          iConfig.getRenderThreads(), iConfig.getRenderQueueSize(),
+          new NamedThreadFactory("BirtService-Render")
+      );
+
+      // cancels renders that exceed their time budget
+      this.renderTimeouts = new RenderTimeouts(
+          new File(iConfig.getReportDir(), RenderTimeouts.CONFIG_FILE), iConfig.getRenderTimeout()
+      );
+      this.watchdog = Executors.newSingleThreadScheduledExecutor(
+          new NamedThreadFactory("BirtService-Watchdog")
+      );
+
+      this.housekeeping = Executors.newSingleThreadScheduledExecutor(
+          new NamedThreadFactory("BirtService-Housekeeping")
+      );
+      housekeeping.scheduleWithFixedDelay(
+          new Runnable()
+          {
+            public void run()
+            {
+              try
+              {
+                outputStore.cleanup();
+              }
+              catch (Throwable t)
+              {
+                log.warn("Failed to cleanup output directory", t);
+              }
+
+              selectionLists.purge();
+
+              try
+              {
+                // removes replaced documents that are no longer read
+                documentCache.evict();
+                documentCache.save();
+              }
+              catch (Throwable t)
+              {
+                log.warn("Failed to save document cache index", t);
+              }
+
+              try
+              {
+                metaDataSnapshot.save();
+              }
+              catch (Throwable t)
+              {
+                log.warn("Failed to save meta data snapshot", t);
+              }
+
+              try
+              {
+                jobManager.purge();
+              }
+              catch (Throwable t)
+              {
+                log.warn("Failed to purge jobs", t);
+              }
+            }
+          }, 60, 60, TimeUnit.SECONDS
+      );
+
+      // job results are available as long as the documents are cached
+      // nodes sharing the output directory keep separate journals
+      File jobDir = new File(iConfig.getOutputDir(), "jobs");
+      if(iConfig.isSharedOutput())
+        jobDir = new File(jobDir, iConfig.getNodeId().replaceAll("[^A-Za-z0-9._-]", "_"));
+
+      this.jobManager = new JobManager(
+          this, jobDir,
+          iConfig.getRenderThreads(), iConfig.getJobQueueSize(), iConfig.getDocumentCacheMaxAge()
+      );
+      jobManager.open();
+
       log.info("Service created: " +this.engine);
       currentState = State.CREATED;
+
+      // recovered jobs render through this service
+      jobManager.start();
+
+      this.prerenderScheduler = new PrerenderScheduler(
+          this, new File(iConfig.getReportDir(), PrerenderScheduler.CONFIG_FILE)
+      );
+      prerenderScheduler.start();
+
+      this.designWatcher = new DesignWatcher(this, workDir, iConfig.getReloadInterval());
+      designWatcher.start();
     }
   }
 
@@ -116,30 +301,134 @@ public class BirtService
 
     for(File f : reportFiles)
     {
-      reports.put(f.getName(), new ReportReference(f.getName()));
+      catalogue.reports.put(f.getName(), newReportReference(f.getName()));
+    }
+  }
+
+  /* extracts the report meta data when it's run the first time, unless there is a snapshot */
+  private FutureTask<ReportReference> newReportReference(final String reportName)
+  {
+    return new FutureTask<ReportReference>(
+        new Callable<ReportReference>()
+        {
+          public ReportReference call() throws Exception
+          {
+            File designFile = new File(iConfig.getReportDir()+reportName);
+            ReportReference reportRef = metaDataSnapshot.lookup(reportName, designFile);
+            if(reportRef!=null)
+              return reportRef;
+
+            // the snapshot is taken for the version of the design that has been parsed
+            long start = System.currentTimeMillis();
+            Catalogue current = catalogue;
+            IReportRunnable design = openCached(current, reportName);
+            reportRef = new ReportReference(reportName);
+            extractParameterMetaData(reportRef, design);
+            metaDataSnapshot.put(reportName, designFile, current.versions.get(reportName), reportRef);
+            log.debug("Extracted meta data of " + reportName + " in " + (System.currentTimeMillis()-start) + " ms");
+            return reportRef;
+          }
+        }
+    );
+  }
+
+  /**
+   * Extract the meta data of all reports up front, spread across a number of threads.
+   * Reports that fail are logged and retried on first access.
+   */
+  private void preloadReports(int threads) throws InterruptedException
+  {
+    long start = System.currentTimeMillis();
+    ExecutorService preload = Executors.newFixedThreadPool(
+        threads, new NamedThreadFactory("BirtService-Preload")
+    );
+
+    try
+    {
+      Map<String, Future<ReportReference>> results = new HashMap<String, Future<ReportReference>>();
+      for(final String reportName : catalogue.reports.keySet())
+      {
+        results.put(reportName, preload.submit(
+            new Callable<ReportReference>()
+            {
+              public ReportReference call() throws Exception
+              {
+                return getReportReference(reportName);
+              }
+            }
+        ));
+      }
+
+      int failed = 0;
+      for(Map.Entry<String, Future<ReportReference>> result : results.entrySet())
+      {
+        try
+        {
+          result.getValue().get();
+        }
+        catch (ExecutionException e)
+        {
+          failed++;
+          log.error("Failed to preload " + result.getKey(), e.getCause());
+        }
+      }
+
+      log.info("Preloaded " + (results.size()-failed) + " of " + results.size()
+          + " reports in " + (System.currentTimeMillis()-start) + " ms, using " + threads + " threads");
+    }
+    finally
+    {
+      preload.shutdownNow();
     }
   }
 
-  private void extractParameterMetaData() throws EngineException
+  /**
+   * Report meta data, including parameter details.
+   * It's extracted once per report design and memoized.
+   */
+  private ReportReference getReportReference(String reportName)
   {
-    Iterator<String> templateNames = reports.keySet().iterator();
-    while(templateNames.hasNext())
+    ConcurrentMap<String, FutureTask<ReportReference>> reports = catalogue.reports;
+    FutureTask<ReportReference> task = reports.get(reportName);
+    if(null==task)
+      throw new IllegalArgumentException("No such report template: "+reportName);
+
+    // no-op if another thread is already extracting
+    task.run();
+
+    try
+    {
+      return task.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while loading report meta data", e);
+    }
+    catch (ExecutionException e)
     {
-      String templateName = templateNames.next();
-      IReportRunnable template = openCached(templateName);
+      // don't memoize failures, the next access tries again
+      reports.replace(reportName, task, newReportReference(reportName));
+      throw new RuntimeException("Failed to load meta data of "+reportName, e.getCause());
+    }
+  }
 
-      // Update report reference details
-      String title = nonNull((String)template.getProperty(IReportRunnable.TITLE), "No title");
-      String description = nonNull((String)template.getProperty(IReportRunnable.DESCRIPTION), "No description");
-      ReportReference reportRef = reports.get(templateName);
-      reportRef.setTitle(title);
-      reportRef.setDescription(description);
+  private void extractParameterMetaData(ReportReference reportRef, IReportRunnable template)
+      throws EngineException
+  {
+    // Update report reference details
+    String title = nonNull((String)template.getProperty(IReportRunnable.TITLE), "No title");
+    String description = nonNull((String)template.getProperty(IReportRunnable.DESCRIPTION), "No description");
+    reportRef.setTitle(title);
+    reportRef.setDescription(description);
 
-      Map<String, Map<String,Serializable>> paramDetails =
-          new HashMap<String, Map<String, Serializable>>();
+    Map<String, Map<String,Serializable>> paramDetails =
+        new HashMap<String, Map<String, Serializable>>();
 
-      //Create Parameter Definition Task and retrieve parameter definitions
-      IGetParameterDefinitionTask task = engine.createGetParameterDefinitionTask( template );
+    //Create Parameter Definition Task and retrieve parameter definitions
+    IGetParameterDefinitionTask task = engine.createGetParameterDefinitionTask( template );
+    try
+    {
       Collection params = task.getParameterDefns( true );
 
       //Iterate over each parameter
@@ -166,34 +455,30 @@ public class BirtService
         else
         {
           IScalarParameterDefn scalar = (IScalarParameterDefn) param;
-          //System.out.println(param.getName());
           //get details on the parameter
           paramDetails.put( scalar.getName(), BirtUtil.loadParameterDetails( task, scalar, template, null));
         }
-
-        // cleanup
-        task.close();
-      }
-
-      // update ReportReference.parameters
-      ReportReference ref = reports.get(templateName);
-      Iterator<String> paramNames = paramDetails.keySet().iterator();
-      while(paramNames.hasNext())
-      {
-        Map<String, Serializable> map = paramDetails.get(paramNames.next());
-        ReportParameter paramRef = new ReportParameter(
-            (String)map.get("Name"), ReportParameter.Type.valueOf((String)map.get("Type"))
-        );
-        paramRef.setDataType(ReportParameter.DataType.valueOf((String)map.get("DataType")));
-        paramRef.setHelptext((String)map.get("Help Text"));
-        paramRef.setPromptText((String)map.get("Prompt Text"));
-        ref.getParameterMetaData().add(paramRef);
       }
-
-
+    }
+    finally
+    {
+      // the task is used for all parameters
+      task.close();
     }
 
-
+    // update ReportReference.parameters
+    Iterator<String> paramNames = paramDetails.keySet().iterator();
+    while(paramNames.hasNext())
+    {
+      Map<String, Serializable> map = paramDetails.get(paramNames.next());
+      ReportParameter paramRef = new ReportParameter(
+          (String)map.get("Name"), ReportParameter.Type.valueOf((String)map.get("Type"))
+      );
+      paramRef.setDataType(ReportParameter.DataType.valueOf((String)map.get("DataType")));
+      paramRef.setHelptext((String)map.get("Help Text"));
+      paramRef.setPromptText((String)map.get("Prompt Text"));
+      reportRef.getParameterMetaData().add(paramRef);
+    }
   }
 
   private static String nonNull(String candidate, String defaultValue)
@@ -235,8 +520,34 @@ public class BirtService
     currentState = State.STOPPED;
   }
 
-  public void destroy()
+  /* waits for a create() in progress, i.e. when undeployed during startup */
+  public synchronized void destroy()
   {
+    if(currentState==State.DESTROYED)
+      return;
+
+    if(designWatcher!=null)
+      designWatcher.stop();
+    if(metaDataSnapshot!=null)
+      metaDataSnapshot.save();
+    if(prerenderScheduler!=null)
+      prerenderScheduler.stop();
+    if(jobManager!=null)
+      jobManager.stop();
+    if(housekeeping!=null)
+      housekeeping.shutdownNow();
+    if(renderScheduler!=null)
+      renderScheduler.shutdownNow();
+    if(watchdog!=null)
+      watchdog.shutdownNow();
+    if(workerPool!=null)
+      workerPool.stop();
+    if(documentCache!=null)
+      documentCache.save();
+    if(renderLeases!=null)
+      renderLeases.stop();
+    if(metrics!=null)
+      metrics.unregister();
     if(engine!=null)
       engine.destroy();
     Platform.shutdown();
@@ -244,205 +555,1744 @@ public class BirtService
     currentState = State.DESTROYED;
   }
 
-  public String render(RenderMetaData metaData)
+  /**
+   * Run a report and store the resulting report document.
+   * The call blocks until one of the render threads has executed the report.
+   * Concurrent calls for the same report and parameters share a single render.
+   *
+   * @throws RejectedExecutionException if the render queue is full
+   */
+  public String render(final RenderMetaData metaData)
   {
     if( (currentState==State.CREATED || currentState==State.STARTED) == false)
       throw new IllegalStateException("Cannot render in state " + currentState);
 
-    if(!reports.keySet().contains(metaData.getReportName()))
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
       throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
 
-    String outputFileName = null;
-
-    log.debug("Render " + metaData);
-
-    IRunTask task = null;
+    return coalesce(metaData, false,
+        new Callable<String>()
+        {
+          public String call() throws Exception
+          {
+            return doRender(metaData, false);
+          }
+        }
+    );
+  }
 
-    try
-    {
-      //Open a (cached) report design
-      IReportRunnable design = openCached(metaData.getReportName());
+  /**
+   * Like {@link #render(RenderMetaData)}, but always runs the report and
+   * replaces a cached document for the same parameters.
+   * Used to render reports ahead of time.
+   *
+   * @see org.jboss.bpm.report.PrerenderScheduler
+   */
+  public String refresh(final RenderMetaData metaData)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot render in state " + currentState);
 
-      //Create runRenderTask to run and render the report,
-      task = engine.createRunTask(design);
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
 
-      // outputfilename
-      outputFileName = metaData.getReportName()+".rptdocument";
+    return coalesce(metaData, true,
+        new Callable<String>()
+        {
+          public String call() throws Exception
+          {
+            return doRender(metaData, true);
+          }
+        }
+    );
+  }
 
-      //Set parent classloader for engine
-      task.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, metaData.getClassloader());
-      task.setParameterValues(unmarshalParameters(metaData));
-      task.run(iConfig.getOutputDir()+outputFileName);
+  /**
+   * Execute a render, unless the same document is already being rendered.
+   * In that case wait for the render in flight and share it's result.<p>
+   *
+   * A shared render only runs within the time budget of the report.
+   * The deadline and timeout of a request limit how long the caller waits,
+   * and the render is cancelled when the last caller gave up,
+   * so that one impatient (or interrupted) caller doesn't fail it for the others.
+   */
+  private String coalesce(final RenderMetaData metaData, boolean refresh, final Callable<String> work)
+  {
+    String documentId = DocumentCache.createKey(
+        metaData.getReportName(), getDesignVersion(metaData.getReportName()), metaData.getParameters()
+    );
+    String key = (refresh ? "refresh:" : "render:") + documentId;
 
+    RenderMetrics.Timer serve = startTimer(RenderMetrics.Phase.SERVE, metaData);
+    long submitted = System.nanoTime();
+    boolean served = false;
+    Flight flight = null;
+    try
+    {
+      flight = join(key, metaData, work);
+      String outputFileName = flight.await(metaData);
+      served = true;
+      serve.stop(getOutputSize(outputFileName, null), -1);
+      metaData.setDocumentId(documentId);
+      return outputFileName;
     }
-    catch (EngineException e)
+    catch (RejectedExecutionException e)
     {
-      throw new RuntimeException("Failed to render report: "+e.getMessage(), e);
+      metrics.count(metaData.getReportName(), ReportMetrics.Outcome.REJECTED);
+      throw e;
     }
     finally
     {
-      if(task!=null)
-        task.close();
-    }
+      if(flight!=null)
+        flight.leave();
 
-    return outputFileName;
+      // failed requests take time, too
+      if(!served)
+        metrics.record(metaData.getReportName(), RenderMetrics.Phase.SERVE, System.nanoTime() - submitted);
+    }
   }
 
-  private Map<String,Object> unmarshalParameters(RenderMetaData metaData)
+  /* join the render in flight or start a new one */
+  private Flight join(String key, RenderMetaData metaData, Callable<String> work)
   {
-    Map<String, Object> results = new HashMap<String,Object>();
-    for(String paramName : metaData.getParameters().keySet())
+    while(true)
     {
-      try
+      Flight flight = new Flight(key, metaData.toString());
+      Flight inFlight;
+      synchronized(flight)
       {
-        ReportReference reportRef = reports.get(metaData.getReportName());
-        ReportParameter reportParam = reportRef.getParameter(paramName);
-        if(null==paramName)
-          throw new IllegalArgumentException("No such param "+paramName);
-
-        String paramValue = metaData.getParameters().get(paramName);
-
-        switch(reportParam.getDataType())
+        inFlight = rendersInFlight.putIfAbsent(key, flight);
+        if(null==inFlight)
         {
-          case DATETIME:
-            results.put(paramName,
-                new java.sql.Date(new SimpleDateFormat("yyyy-MM-dd").parse(paramValue).getTime()
-                ));
-            break;
-          case NUMBER:
-            results.put(paramName, Long.valueOf(paramValue));
-            break;
-          case BOOLEAN:
-            results.put(paramName, Boolean.valueOf(paramValue));
-            break;
-          default:
-            results.put(paramName, paramValue);
+          flight.start(metaData, work);
+          return flight;
         }
       }
-      catch (Exception e)
+
+      if(inFlight.join(metaData.getPriority()))
       {
-        throw new RuntimeException("Failed to unmarshall report parameter", e);
+        log.debug("Join render in flight " + key);
+        return inFlight;
       }
+      // all callers gave up on it, start over
     }
-    return results;
   }
 
   /**
-   * Render a report based on render meta data.
-   * this routin simply return the output filename.
-   * in order to get to an absolute path you need to prepend the service output directory:<p>
-   * <code>
-   *  BirtService.getIntegrationConfig().getOutputDir() + outputFileName;
-   * </code>
-   *
-   * @param metaData render instruction like the template name
-   * @return output filename
+   * A render shared by the callers that ask for the same document while it's in progress.
    */
-  public String view(RenderMetaData metaData)
+  private class Flight
   {
-    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
-      throw new IllegalStateException("Cannot renderTask in state " + currentState);
-
-    if(!reports.keySet().contains(metaData.getReportName()))
-      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
-
-    String outputFileName = null;
-
-    log.debug("View " + metaData);
+    private String key;
+    private RenderControl control;
+    private Future<String> future;
+    private volatile boolean started;
 
-    IRenderTask renderTask = null;
+    /* guarded by this */
+    private int waiters;
+    private boolean abandoned;
 
-    try
+    Flight(String key, String description)
     {
-      //Open a (cached) report design
-      IReportDocument document = engine.openReportDocument(
-          iConfig.getOutputDir()+metaData.getReportName()+".rptdocument"
-      );
-
-      //Create renderTask to run and renderTask the report,
-      renderTask = engine.createRenderTask(document);
-
-      //Set parent classloader for engine
-      renderTask.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, metaData.getClassloader());
-      renderTask.setParameterValues(metaData.getParameters());
+      this.key = key;
+      this.control = new RenderControl(description);
+    }
 
-      // ------------------
+    /* called with the lock held, so that nobody joins before the render is queued */
+    void start(RenderMetaData metaData, final Callable<String> work)
+    {
+      Callable<String> shared = new Callable<String>()
+      {
+        public String call() throws Exception
+        {
+          started = true;
+          try
+          {
+            return work.call();
+          }
+          finally
+          {
+            rendersInFlight.remove(key, Flight.this);
+          }
+        }
+      };
 
-      IRenderOption options = new RenderOption();
-      switch(metaData.getFormat())
+      try
+      {
+        // callers enforce their deadline and timeout while waiting
+        future = renderScheduler.submit(
+            controlled(metaData, control, System.nanoTime(), 0, shared),
+            metaData.getPriority(), 0, metaData.getReportName()
+        );
+        waiters = 1;
+      }
+      catch (RejectedExecutionException e)
       {
-        case HTML:
-          options.setOutputFormat("html");
-          outputFileName = extactReportName(metaData.getReportName())+".html";
-          break;
-        case PDF:
-          options.setOutputFormat("pdf");
-          outputFileName = extactReportName(metaData.getReportName())+".pdf";
-          break;
+        abandoned = true;
+        rendersInFlight.remove(key, this);
+        throw e;
       }
-      options.setOutputFileName(iConfig.getOutputDir() + outputFileName);
+    }
 
-      // ------------------
+    /* a more important caller moves the queued render up */
+    synchronized boolean join(RenderMetaData.Priority priority)
+    {
+      if(abandoned)
+        return false;
+      waiters++;
+      if(!started)
+        renderScheduler.promote(future, priority);
+      return true;
+    }
 
-      if( options.getOutputFormat().equalsIgnoreCase("html"))
+    /* the last caller to leave cancels the render, unless it's done */
+    void leave()
+    {
+      synchronized(this)
       {
-        HTMLRenderOption htmlOptions = new HTMLRenderOption( options);
-        htmlOptions.setImageHandler(new HTMLServerImageHandler());
-        htmlOptions.setImageDirectory(iConfig.getImageDirectory());
-        htmlOptions.setBaseImageURL(metaData.getImageBaseUrl());
-        htmlOptions.setHtmlPagination(false);
-        htmlOptions.setHtmlRtLFlag(false);
-        //Setting this to true removes html and body tags
-        htmlOptions.setEmbeddable(false);
-        renderTask.setRenderOption(htmlOptions);
+        if(--waiters > 0)
+          return;
+        abandoned = true;
+        rendersInFlight.remove(key, this);
+        if(future.isDone())
+          return;
       }
-      else if( options.getOutputFormat().equalsIgnoreCase("pdf") ){
 
-        PDFRenderOption pdfOptions = new PDFRenderOption( options );
-        pdfOptions.setOption( IPDFRenderOption.FIT_TO_PAGE, new Boolean(true) );
-        pdfOptions.setOption( IPDFRenderOption.PAGEBREAK_PAGINATION_ONLY, new Boolean(true) );
-        renderTask.setRenderOption(pdfOptions);
-      }
+      future.cancel(true);
+      control.cancel("no caller is waiting for it anymore");
+    }
 
-      // ------------------
-      if(renderTask.getRenderOption()==null)
-        renderTask.setRenderOption(options);
+    /**
+     * Wait for the result, as long as the deadline and timeout of the caller permit.
+     * The deadline only applies until the render started.
+     */
+    String await(RenderMetaData metaData)
+    {
+      long timeout = metaData.getTimeout();
+      long giveUp = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+      long deadline = metaData.getDeadline();
+      try
+      {
+        while(true)
+        {
+          boolean queued = deadline > 0 && !started && (0==giveUp || deadline < giveUp);
+          long until = queued ? deadline : giveUp;
+          if(0==until)
+            return future.get();
 
-      renderTask.render();
+          long remaining = until - System.currentTimeMillis();
+          if(remaining <= 0)
+          {
+            if(queued)
+              throw new RejectedExecutionException("Deadline exceeded before the report was rendered");
+            else
+              throw new CancellationException(metaData + " cancelled: timed out after " + timeout + " ms");
+          }
 
+          try
+          {
+            return future.get(remaining, TimeUnit.MILLISECONDS);
+          }
+          catch (TimeoutException e)
+          {
+            // check again, the render may have started meanwhile
+          }
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for report", e);
+      }
+      catch (ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+        if(cause instanceof RuntimeException)
+          throw (RuntimeException)cause;
+        else if(cause instanceof Error)
+          throw (Error)cause;
+        else
+          throw new RuntimeException(cause.getMessage(), cause);
+      }
     }
-    catch (EngineException e)
-    {
-      throw new RuntimeException("Failed to renderTask report: "+e.getMessage(), e);
-    }
-    finally
-    {
-      if(renderTask !=null)
-        renderTask.close();
-    }
-
-    return outputFileName;
   }
 
-  private IReportRunnable openCached(String reportName)
-      throws EngineException
+  /**
+   * The time a report document was rendered, i.e. to tell clients how fresh
+   * a (pre-)rendered report is.
+   *
+   * @return the timestamp or -1 if the document doesn't exist
+   */
+  public long getDocumentTimestamp(RenderMetaData metaData)
   {
-    IReportRunnable design = cache.get(reportName);
-    if(null==design)
-    {
-      design = engine.openReportDesign(
-          iConfig.getReportDir()+reportName
-      );
-      cache.put(reportName, design);
-    }
-    return design;
+    String documentId = resolveDocumentId(metaData);
+    return documentId!=null ? documentCache.getCreated(documentId) : -1;
   }
 
-  public IntegrationConfig getIntegrationConfig()
+  /**
+   * Queue a render request and return immediately.
+   * The job can be polled through {@link #getJob(String)}.
+   * Once finished, the result can be viewed like any other rendered document.
+   *
+   * @throws RejectedExecutionException if the job queue is full
+   */
+  public RenderJob submitJob(RenderMetaData metaData)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot render in state " + currentState);
+
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
+
+    return jobManager.submit(metaData);
+  }
+
+  /**
+   * @return the job or null if it doesn't exist (anymore)
+   */
+  public RenderJob getJob(String jobId)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot access jobs in state " + currentState);
+
+    return jobManager.getJob(jobId);
+  }
+
+  private String doRender(RenderMetaData metaData, boolean refresh)
+  {
+    String outputFileName = null;
+
+    log.debug("Render " + metaData);
+
+    IRunTask task = null;
+    File tmpFile = null;
+    String key = null;
+    boolean leased = false;
+
+    try
+    {
+      String designVersion = getDesignVersion(metaData.getReportName());
+      key = DocumentCache.createKey(metaData.getReportName(), designVersion, metaData.getParameters());
+
+      File document = refresh ? null : documentCache.lookup(key);
+      if(null==document && renderLeases!=null)
+      {
+        // another node may be rendering the same document, wait no longer than the report's budget
+        long budget = renderTimeouts.getTimeout(metaData.getReportName(), metaData.getTimeout());
+        long giveUp = budget > 0 ? System.currentTimeMillis() + budget : 0;
+        while(!(leased = renderLeases.tryAcquire(key)))
+        {
+          log.debug("Wait for another node to render " + key);
+          renderLeases.await(key, RenderControl.current(), giveUp);
+          document = documentCache.lookup(key);
+          if(document!=null)
+            break;
+        }
+
+        // it may have been rendered before we got the lease
+        if(leased && !refresh)
+          document = documentCache.lookup(key);
+      }
+
+      if(!refresh)
+        metrics.documentCacheHit(document!=null);
+
+      if(document!=null)
+      {
+        log.debug("Document cache hit " + key);
+      }
+      else if(workerPool!=null)
+      {
+        // isolated in a worker process
+        tmpFile = documentCache.createTempFile(key);
+        Map<String,Object> parameters = unmarshalParameters(metaData);
+        RenderMetrics.Timer timer = startTimer(RenderMetrics.Phase.RUN, metaData);
+        workerPool.execute(
+            new WorkerRequest(
+                WorkerRequest.Type.RUN, metaData.getReportName(), designVersion,
+                tmpFile.getAbsolutePath(), parameters
+            ),
+            RenderControl.current()
+        );
+        timer.stop(tmpFile.length(), -1);
+        document = documentCache.put(key, tmpFile);
+      }
+      else
+      {
+        //Open a (cached) report design
+        IReportRunnable design = openCached(metaData.getReportName());
+
+        //Create runRenderTask to run and render the report,
+        task = engine.createRunTask(design);
+        attach(task);
+
+        //Set parent classloader for engine
+        task.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, metaData.getClassloader());
+        task.setParameterValues(unmarshalParameters(metaData));
+
+        tmpFile = documentCache.createTempFile(key);
+        RenderMetrics.Timer timer = startTimer(RenderMetrics.Phase.RUN, metaData);
+        task.run(tmpFile.getAbsolutePath());
+        timer.stop(tmpFile.length(), -1);
+
+        // a cancelled task leaves an incomplete document
+        checkCancelled();
+        document = documentCache.put(key, tmpFile);
+      }
+
+      metaData.setDocumentId(key);
+
+      // outputfilename
+      outputFileName = outputStore.relativize(document);
+    }
+    catch (EngineException e)
+    {
+      throw new RuntimeException("Failed to render report: "+e.getMessage(), e);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for report", e);
+    }
+    finally
+    {
+      detach();
+      if(task!=null)
+        task.close();
+      if(tmpFile!=null && tmpFile.exists())
+        tmpFile.delete();
+      if(leased)
+        renderLeases.release(key);
+    }
+
+    return outputFileName;
+  }
+
+  /**
+   * The design version is part of the document cache key,
+   * so that changes to a template invalidate previously rendered documents.
+   * It's the version of the design in the catalogue, which renders use,
+   * rather than that of a file that may not have been reloaded yet.
+   */
+  private String getDesignVersion(String reportName)
+  {
+    Catalogue current = catalogue;
+    String version = current.versions.get(reportName);
+    if(null==version)
+    {
+      // parsing the design records it's version
+      try
+      {
+        openCached(reportName);
+      }
+      catch (EngineException e)
+      {
+        throw new RuntimeException("Failed to open report design: "+e.getMessage(), e);
+      }
+      version = current.versions.get(reportName);
+    }
+    return version;
+  }
+
+  /* read before the design is parsed, a later change is picked up by the next reload */
+  private String readDesignVersion(String reportName)
+  {
+    return MetaDataSnapshot.getVersion(new File(iConfig.getReportDir()+reportName));
+  }
+
+  private Map<String,Object> unmarshalParameters(RenderMetaData metaData)
+  {
+    // no need to extract the meta data
+    if(metaData.getParameters().isEmpty())
+      return new HashMap<String,Object>();
+
+    RenderMetrics.Timer timer = startTimer(RenderMetrics.Phase.PARAMETERS, metaData);
+    Map<String,Object> results =
+        unmarshalParameters(getReportReference(metaData.getReportName()), metaData.getParameters());
+    timer.stop();
+    return results;
+  }
+
+  /* package visible for the benchmarks */
+  static Map<String,Object> unmarshalParameters(ReportReference reportRef, Map<String,String> parameters)
+  {
+    Map<String, Object> results = new HashMap<String,Object>();
+    for(Map.Entry<String,String> param : parameters.entrySet())
+    {
+      String paramName = param.getKey();
+      try
+      {
+        ReportParameter reportParam = reportRef.getParameter(paramName);
+        if(null==reportParam)
+          throw new IllegalArgumentException("No such param "+paramName);
+
+        results.put(paramName, unmarshalParameter(reportParam.getDataType(), param.getValue()));
+      }
+      catch (Exception e)
+      {
+        throw new RuntimeException("Failed to unmarshall report parameter", e);
+      }
+    }
+    return results;
+  }
+
+  private static Object unmarshalParameter(ReportParameter.DataType dataType, String paramValue)
+      throws ParseException
+  {
+    switch(dataType)
+    {
+      case DATETIME:
+        return new java.sql.Date(new SimpleDateFormat("yyyy-MM-dd").parse(paramValue).getTime());
+      case NUMBER:
+        return Long.valueOf(paramValue);
+      case BOOLEAN:
+        return Boolean.valueOf(paramValue);
+      default:
+        return paramValue;
+    }
+  }
+
+  /**
+   * Selection list of a parameter in a cascading parameter group, given the values of
+   * the parameters that precede it. Results are memoized for a while, so that
+   * the same drill-down doesn't query the data source again.
+   *
+   * @param metaData the report name and classloader
+   * @param groupName the cascading parameter group
+   * @param keys values of the preceding parameters in the group
+   * @return value -> label, in the order of the data set
+   * @throws RejectedExecutionException if the render queue is full
+   */
+  public Map<String,String> getCascadingSelectionList(
+      final RenderMetaData metaData, final String groupName, final List<String> keys)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot evaluate parameters in state " + currentState);
+
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
+
+    List<String> key = new ArrayList<String>();
+    key.add(metaData.getReportName());
+    key.add(groupName);
+    key.addAll(keys);
+
+    return selectionLists.get(key,
+        new Callable<Map<String,String>>()
+        {
+          public Map<String,String> call() throws Exception
+          {
+            return execute(metaData,
+                new Callable<Map<String,String>>()
+                {
+                  public Map<String,String> call() throws Exception
+                  {
+                    return doGetCascadingSelectionList(metaData, groupName, keys);
+                  }
+                }
+            );
+          }
+        }
+    );
+  }
+
+  private Map<String,String> doGetCascadingSelectionList(RenderMetaData metaData, String groupName, List<String> keys)
+      throws EngineException, ParseException
+  {
+    log.debug("Evaluate parameter group " + groupName + " " + keys + " of " + metaData.getReportName());
+
+    IReportRunnable design = openCached(metaData.getReportName());
+    ReportReference reportRef = getReportReference(metaData.getReportName());
+
+    IGetParameterDefinitionTask task = engine.createGetParameterDefinitionTask(design);
+    attach(task);
+    try
+    {
+      task.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, metaData.getClassloader());
+
+      IParameterDefnBase group = task.getParameterDefn(groupName);
+      if( !(group instanceof IParameterGroupDefn) )
+        throw new IllegalArgumentException("No such parameter group: "+groupName);
+
+      List contents = ((IParameterGroupDefn)group).getContents();
+      if(keys.size() >= contents.size())
+        throw new IllegalArgumentException("Parameter group "+groupName+" has only "+contents.size()+" parameters");
+
+      // parent values are typed like the parameters they belong to
+      Object[] keyValues = new Object[keys.size()];
+      for(int i=0; i<keys.size(); i++)
+      {
+        IScalarParameterDefn scalar = (IScalarParameterDefn)contents.get(i);
+        ReportParameter param = reportRef.getParameter(scalar.getName());
+        keyValues[i] = param!=null ? unmarshalParameter(param.getDataType(), keys.get(i)) : keys.get(i);
+      }
+
+      task.evaluateQuery(groupName);
+      Collection choices = task.getSelectionListForCascadingGroup(groupName, keyValues);
+
+      Map<String,String> selectionList = new LinkedHashMap<String,String>();
+      if(choices!=null)
+      {
+        for(Object o : choices)
+        {
+          IParameterSelectionChoice choice = (IParameterSelectionChoice)o;
+          selectionList.put(String.valueOf(choice.getValue()), choice.getLabel());
+        }
+      }
+      // don't memoize what a cancelled query returned so far
+      checkCancelled();
+      return selectionList;
+    }
+    finally
+    {
+      detach();
+      task.close();
+    }
+  }
+
+  /**
+   * Render a report based on render meta data.
+   * this routin simply return the output filename.
+   * in order to get to an absolute path you need to prepend the service output directory:<p>
+   * <code>
+   *  BirtService.getIntegrationConfig().getOutputDir() + outputFileName;
+   * </code>
+   *
+   * Each call renders into it's own workspace, so concurrent views
+   * of the same report don't interfere.
+   *
+   * @param metaData render instruction like the template name
+   * @return output filename. It's leased until {@link #releaseOutput(RenderMetaData)}
+   * @throws RejectedExecutionException if the render queue is full
+   */
+  public String view(final RenderMetaData metaData)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot renderTask in state " + currentState);
+
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
+
+    return execute(metaData,
+        new Callable<String>()
+        {
+          public String call() throws Exception
+          {
+            return doView(metaData, null);
+          }
+        }
+    );
+  }
+
+  /**
+   * Render a report document directly into a stream,
+   * i.e. the response stream of a HTTP request. Nothing is written to disk,
+   * except for images referenced from HTML output.
+   *
+   * @param metaData render instruction like the template name
+   * @param out the output target. It's flushed but not closed.
+   * @throws RejectedExecutionException if the render queue is full
+   */
+  public void view(final RenderMetaData metaData, final OutputStream out)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot renderTask in state " + currentState);
+
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
+
+    execute(metaData,
+        new Callable<String>()
+        {
+          public String call() throws Exception
+          {
+            return doView(metaData, guard(out));
+          }
+        }
+    );
+  }
+
+  /* renders into a workspace file, unless an output stream is given */
+  private String doView(RenderMetaData metaData, OutputStream out)
+  {
+    String outputFileName = null;
+
+    log.debug("View " + metaData);
+
+    IReportDocument document = null;
+    IRenderTask renderTask = null;
+
+    String documentId = resolveDocumentId(metaData);
+    String workspace = null;
+    boolean completed = false;
+    lease(documentId);
+
+    try
+    {
+      File documentFile = lookupDocument(documentId, metaData.getReportName());
+
+      //Open the report document
+      document = openDocument(metaData.getReportName(), documentFile);
+
+      //Create renderTask to run and renderTask the report,
+      renderTask = engine.createRenderTask(document);
+      attach(renderTask);
+
+      //Set parent classloader for engine
+      renderTask.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, metaData.getClassloader());
+      renderTask.setParameterValues(metaData.getParameters());
+
+      // ------------------
+
+      // images of streamed output belong to the document
+      workspace = out==null ? outputStore.createWorkspace() : null;
+      CountingOutputStream counted = out!=null ? new CountingOutputStream(out) : null;
+      IRenderOption options = createRenderOption(metaData, false, workspace!=null ? workspace : documentId);
+      outputFileName = setOutputTarget(options, metaData, counted, workspace);
+      renderTask.setRenderOption(options);
+
+      RenderMetrics.Timer timer = startTimer(RenderMetrics.Phase.RENDER, metaData);
+      renderTask.render();
+      timer.stop(getOutputSize(outputFileName, counted), document.getPageCount());
+      checkCancelled();
+      flush(out);
+      completed = true;
+    }
+    catch (EngineException e)
+    {
+      throw new RuntimeException("Failed to renderTask report: "+e.getMessage(), e);
+    }
+    finally
+    {
+      detach();
+      if(renderTask !=null)
+        renderTask.close();
+      if(document!=null)
+        document.close();
+      if(workspace!=null)
+        handOver(metaData, workspace, completed);
+      release(documentId);
+    }
+
+    return outputFileName;
+  }
+
+  /**
+   * Render a single page of a report document.
+   * Rendered pages are cached along with the document, so subsequent
+   * requests for the same page don't touch the engine.
+   *
+   * @param metaData render instruction like the template name
+   * @param pageNumber the page number, starting with 1
+   * @return output filename, relative to the output directory. It's leased until {@link #releaseOutput(RenderMetaData)}
+   * @throws RejectedExecutionException if the render queue is full
+   */
+  public String viewPage(final RenderMetaData metaData, final long pageNumber)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot renderTask in state " + currentState);
+
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
+
+    final String documentId = resolveDocumentId(metaData);
+    lease(documentId);
+
+    try
+    {
+      final File documentFile = lookupDocument(documentId, metaData.getReportName());
+
+      long pageCount = getPageCount(metaData.getReportName(), documentId, documentFile);
+      if(pageNumber < 1 || pageNumber > pageCount)
+        throw new IllegalArgumentException("No such page: " + pageNumber + ". The document has " + pageCount + " pages");
+
+      metaData.setDocumentId(documentId);
+
+      // the image base url is part of the html output
+      String imageUrlHash = Integer.toHexString(String.valueOf(metaData.getImageBaseUrl()).hashCode());
+      final File pageFile = new File(
+          documentCache.getPageDirectory(documentFile),
+          "page-" + pageNumber + "-" + imageUrlHash + getFileExtension(metaData.getFormat())
+      );
+      final String outputFileName = outputStore.relativize(pageFile);
+
+      metrics.pageCacheHit(pageFile.exists());
+      if(pageFile.exists())
+      {
+        log.debug("Page cache hit " + outputFileName);
+        handOver(metaData, documentId);
+        return outputFileName;
+      }
+
+      execute(metaData,
+          new Callable<String>()
+          {
+            public String call() throws Exception
+            {
+              doViewPage(metaData, documentId, documentFile, pageNumber, pageFile);
+              return outputFileName;
+            }
+          }
+      );
+
+      handOver(metaData, documentId);
+      return outputFileName;
+    }
+    finally
+    {
+      release(documentId);
+    }
+  }
+
+  private void doViewPage(RenderMetaData metaData, String documentId, File documentFile, long pageNumber, File pageFile)
+  {
+    log.debug("View page " + pageNumber + " of " + metaData);
+
+    IReportDocument document = null;
+    IRenderTask renderTask = null;
+    File tmpFile = new File(pageFile.getPath() + "-" + UUID.randomUUID() + ".tmp");
+
+    try
+    {
+      document = openDocument(metaData.getReportName(), documentFile);
+      renderTask = engine.createRenderTask(document);
+      attach(renderTask);
+
+      //Set parent classloader for engine
+      renderTask.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, metaData.getClassloader());
+      renderTask.setParameterValues(metaData.getParameters());
+
+      pageFile.getParentFile().mkdirs();
+      IRenderOption options = createRenderOption(metaData, true, documentId);
+      options.setOutputFileName(tmpFile.getAbsolutePath());
+      renderTask.setRenderOption(options);
+      renderTask.setPageNumber(pageNumber);
+
+      RenderMetrics.Timer timer = startTimer(RenderMetrics.Phase.RENDER, metaData);
+      renderTask.render();
+      timer.stop(tmpFile.length(), 1);
+
+      // never cache a partial page
+      checkCancelled();
+      if(!tmpFile.renameTo(pageFile) && !pageFile.exists())
+        throw new IllegalStateException("Failed to move " + tmpFile + " to " + pageFile);
+    }
+    catch (EngineException e)
+    {
+      throw new RuntimeException("Failed to render page: "+e.getMessage(), e);
+    }
+    finally
+    {
+      detach();
+      if(renderTask !=null)
+        renderTask.close();
+      if(document!=null)
+        document.close();
+      if(tmpFile.exists())
+        tmpFile.delete();
+    }
+  }
+
+  /**
+   * Number of pages of the report document referenced by the meta data.
+   */
+  public long getPageCount(RenderMetaData metaData)
+  {
+    String documentId = resolveDocumentId(metaData);
+    lease(documentId);
+    try
+    {
+      return getPageCount(metaData.getReportName(), documentId, lookupDocument(documentId, metaData.getReportName()));
+    }
+    finally
+    {
+      release(documentId);
+    }
+  }
+
+  /* the page count is kept in the document's page directory */
+  private long getPageCount(String reportName, String documentId, File documentFile)
+  {
+    File countFile = new File(documentCache.getPageDirectory(documentFile), "page-count");
+    if(countFile.exists())
+    {
+      Properties props = new Properties();
+      FileInputStream in = null;
+      try
+      {
+        in = new FileInputStream(countFile);
+        props.load(in);
+        return Long.parseLong(props.getProperty("count"));
+      }
+      catch (Exception e)
+      {
+        log.debug("Ignore invalid page count " + countFile);
+      }
+      finally
+      {
+        FileUtil.close(in);
+      }
+    }
+
+    long count;
+    IReportDocument document = null;
+    try
+    {
+      document = openDocument(reportName, documentFile);
+      count = document.getPageCount();
+    }
+    catch (EngineException e)
+    {
+      throw new RuntimeException("Failed to open report document: "+e.getMessage(), e);
+    }
+    finally
+    {
+      if(document!=null)
+        document.close();
+    }
+
+    countFile.getParentFile().mkdirs();
+    Properties props = new Properties();
+    props.setProperty("count", String.valueOf(count));
+    FileOutputStream out = null;
+    try
+    {
+      out = new FileOutputStream(countFile);
+      props.store(out, null);
+    }
+    catch (IOException e)
+    {
+      log.warn("Failed to store page count " + countFile, e);
+    }
+    finally
+    {
+      FileUtil.close(out);
+    }
+
+    return count;
+  }
+
+  /* documents are only viewed by id, the caller tracks which one it rendered */
+  private String resolveDocumentId(RenderMetaData metaData)
+  {
+    return metaData.getDocumentId();
+  }
+
+  /* documents in use are not evicted from the cache */
+  private void lease(String documentId)
+  {
+    if(documentId!=null)
+      outputStore.lease(documentId);
+  }
+
+  private void release(String documentId)
+  {
+    if(documentId!=null)
+      outputStore.release(documentId);
+  }
+
+  private File lookupDocument(String documentId, String reportName)
+  {
+    File documentFile = documentId!=null ? documentCache.lookup(documentId) : null;
+    if(null==documentFile)
+      throw new IllegalStateException("No report document available for "+reportName+". Please render the report first.");
+    return documentFile;
+  }
+
+  /**
+   * Run and render a report in a single pass.
+   * Unlike {@link #render(RenderMetaData)} followed by {@link #view(RenderMetaData)},
+   * this doesn't write an intermediate report document. Use it for output
+   * that is viewed once, i.e. doesn't need paging or re-rendering.
+   *
+   * @param metaData render instruction like the template name
+   * @return output filename, relative to the output directory. It's leased until {@link #releaseOutput(RenderMetaData)}
+   * @throws RejectedExecutionException if the render queue is full
+   */
+  public String runAndRender(final RenderMetaData metaData)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot render in state " + currentState);
+
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
+
+    return execute(metaData,
+        new Callable<String>()
+        {
+          public String call() throws Exception
+          {
+            return doRunAndRender(metaData, null);
+          }
+        }
+    );
+  }
+
+  /**
+   * Run and render a report in a single pass, directly into a stream.
+   *
+   * @param metaData render instruction like the template name
+   * @param out the output target. It's flushed but not closed.
+   * @throws RejectedExecutionException if the render queue is full
+   * @see #runAndRender(RenderMetaData)
+   */
+  public void runAndRender(final RenderMetaData metaData, final OutputStream out)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot render in state " + currentState);
+
+    if(!catalogue.reports.containsKey(metaData.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+metaData.getReportName());
+
+    execute(metaData,
+        new Callable<String>()
+        {
+          public String call() throws Exception
+          {
+            return doRunAndRender(metaData, guard(out));
+          }
+        }
+    );
+  }
+
+  /* renders into a workspace file, unless an output stream is given */
+  private String doRunAndRender(RenderMetaData metaData, OutputStream out)
+  {
+    if(workerPool!=null)
+      return doRunAndRenderInWorker(metaData, out);
+
+    String outputFileName = null;
+
+    log.debug("Run and render " + metaData);
+
+    IRunAndRenderTask task = null;
+
+    // holds the output file and images, even when streaming
+    String workspace = outputStore.createWorkspace();
+    boolean completed = false;
+
+    try
+    {
+      //Open a (cached) report design
+      IReportRunnable design = openCached(metaData.getReportName());
+
+      task = engine.createRunAndRenderTask(design);
+      attach(task);
+
+      //Set parent classloader for engine
+      task.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, metaData.getClassloader());
+      task.setParameterValues(unmarshalParameters(metaData));
+
+      CountingOutputStream counted = out!=null ? new CountingOutputStream(out) : null;
+      IRenderOption options = createRenderOption(metaData, false, workspace);
+      outputFileName = setOutputTarget(options, metaData, counted, workspace);
+      task.setRenderOption(options);
+
+      // running and rendering can't be told apart in a single pass
+      RenderMetrics.Timer timer = startTimer(RenderMetrics.Phase.RUN, metaData);
+      task.run();
+      timer.stop(getOutputSize(outputFileName, counted), -1);
+      checkCancelled();
+      flush(out);
+      completed = true;
+    }
+    catch (EngineException e)
+    {
+      throw new RuntimeException("Failed to render report: "+e.getMessage(), e);
+    }
+    finally
+    {
+      detach();
+      if(task!=null)
+        task.close();
+      if(null==out)
+        handOver(metaData, workspace, completed);
+      else
+        releaseWorkspace(workspace, completed);
+    }
+
+    return outputFileName;
+  }
+
+  /* the worker always renders into a file, which is copied when streaming */
+  private String doRunAndRenderInWorker(RenderMetaData metaData, OutputStream out)
+  {
+    log.debug("Run and render in worker " + metaData);
+
+    String workspace = outputStore.createWorkspace();
+    boolean completed = false;
+    try
+    {
+      File output = new File(
+          outputStore.getWorkspace(workspace),
+          extactReportName(metaData.getReportName()) + getFileExtension(metaData.getFormat())
+      );
+
+      Map<String,Object> parameters = unmarshalParameters(metaData);
+      WorkerRequest request = new WorkerRequest(
+          WorkerRequest.Type.RUN_AND_RENDER, metaData.getReportName(),
+          getDesignVersion(metaData.getReportName()), output.getAbsolutePath(), parameters
+      );
+      request.setFormat(metaData.getFormat());
+      request.setImageDirectory(outputStore.getImageDirectory(workspace).getAbsolutePath());
+      request.setImageBaseUrl(OutputStore.getImageBaseUrl(metaData.getImageBaseUrl(), workspace));
+      RenderMetrics.Timer timer = startTimer(RenderMetrics.Phase.RUN, metaData);
+      workerPool.execute(request, RenderControl.current());
+      timer.stop(output.length(), -1);
+      completed = true;
+
+      if(null==out)
+        return outputStore.relativize(output);
+
+      copy(output, out);
+      output.delete();
+      flush(out);
+      return null;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for a render worker", e);
+    }
+    finally
+    {
+      if(null==out)
+        handOver(metaData, workspace, completed);
+      else
+        releaseWorkspace(workspace, completed);
+    }
+  }
+
+  private static void copy(File file, OutputStream out)
+  {
+    InputStream in = null;
+    try
+    {
+      in = new FileInputStream(file);
+      byte[] buffer = new byte[8192];
+      int n;
+      while((n = in.read(buffer)) != -1)
+        out.write(buffer, 0, n);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Failed to write report output", e);
+    }
+    finally
+    {
+      FileUtil.close(in);
+    }
+  }
+
+  /**
+   * Run and render a report for many parameter sets. The renders are spread
+   * across the render threads and results are handed to the sink as they complete.
+   * At most one render per render thread is in flight, so that a batch
+   * doesn't block the render queue for interactive requests.
+   *
+   * @param template report name, output format and classloader used for all renders
+   * @param parameterSets a parameter map for each render
+   * @param sink receives the results
+   */
+  public void renderBatch(RenderMetaData template, List<Map<String,String>> parameterSets, BatchSink sink)
+      throws IOException
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot render in state " + currentState);
+
+    if(!catalogue.reports.containsKey(template.getReportName()))
+      throw new IllegalArgumentException("No such report template: "+template.getReportName());
+
+    log.debug("Render batch of " + parameterSets.size() + ": " + template);
+
+    // parse the design once, all renders share it
+    try
+    {
+      openCached(template.getReportName());
+    }
+    catch (EngineException e)
+    {
+      throw new RuntimeException("Failed to open report design: "+e.getMessage(), e);
+    }
+
+    CompletionService<BatchResult> completion = new ExecutorCompletionService<BatchResult>(
+        renderScheduler.executor(template.getPriority(), template.getReportName())
+    );
+    int window = Math.max(1, iConfig.getRenderThreads());
+    int submitted = 0;
+    int completed = 0;
+
+    /* renders in progress, cancelled when the batch is aborted */
+    Map<Integer, RenderControl> controls = new HashMap<Integer, RenderControl>();
+
+    try
+    {
+      while(completed < parameterSets.size())
+      {
+        while(submitted < parameterSets.size() && submitted - completed < window)
+        {
+          final int index = submitted;
+          final RenderMetaData metaData = new RenderMetaData(
+              template.getClassloader(), template.getReportName(), template.getFormat(), template.getImageBaseUrl()
+          );
+          metaData.setPriority(template.getPriority());
+          metaData.getParameters().putAll(parameterSets.get(index));
+
+          RenderControl control = new RenderControl(metaData.toString());
+          final Callable<String> work = controlled(
+              metaData, control, System.nanoTime(), metaData.getTimeout(),
+              new Callable<String>()
+              {
+                public String call() throws Exception
+                {
+                  return doRunAndRender(metaData, null);
+                }
+              }
+          );
+
+          try
+          {
+            completion.submit(
+                new Callable<BatchResult>()
+                {
+                  public BatchResult call() throws Exception
+                  {
+                    try
+                    {
+                      String outputFileName = work.call();
+                      return new BatchResult(index, outputFileName, metaData.getOutputLease(), null);
+                    }
+                    catch (Throwable t)
+                    {
+                      return new BatchResult(index, null, null, t);
+                    }
+                  }
+                }
+            );
+            controls.put(index, control);
+            submitted++;
+          }
+          catch (RejectedExecutionException e)
+          {
+            // render queue is full
+            if(submitted==completed)
+              Thread.sleep(100);
+            break;
+          }
+        }
+
+        if(submitted==completed)
+          continue;
+
+        BatchResult result = completion.take().get();
+        completed++;
+        controls.remove(result.index);
+
+        if(result.error!=null)
+        {
+          sink.failed(result.index, result.error);
+        }
+        else
+        {
+          try
+          {
+            sink.add(result.index, new File(iConfig.getOutputDir() + result.outputFileName));
+          }
+          finally
+          {
+            discard(result);
+          }
+        }
+      }
+
+      sink.finish();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while rendering batch", e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException("Failed to render batch", e.getCause());
+    }
+    finally
+    {
+      // i.e. the client disconnected: stop the renders in progress and clean up after them
+      if(completed < submitted)
+      {
+        for(RenderControl control : controls.values())
+          control.cancel("batch aborted");
+        drain(completion, submitted - completed);
+      }
+    }
+  }
+
+  /* wait for outstanding renders of an aborted batch and discard their output */
+  private void drain(CompletionService<BatchResult> completion, int outstanding)
+  {
+    boolean interrupted = false;
+    while(outstanding > 0)
+    {
+      try
+      {
+        BatchResult result = completion.take().get();
+        outstanding--;
+        discard(result);
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+      catch (ExecutionException e)
+      {
+        outstanding--;
+      }
+    }
+
+    if(interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  /* remove the workspace of a batch result and release it's lease */
+  private void discard(BatchResult result)
+  {
+    if(null==result.outputFileName)
+      return;
+
+    File output = new File(iConfig.getOutputDir() + result.outputFileName);
+    FileUtil.delete(output.getParentFile()); // the workspace
+    outputStore.release(result.outputLease);
+  }
+
+  private static class BatchResult
+  {
+    int index;
+    String outputFileName;
+    String outputLease;
+    Throwable error;
+
+    BatchResult(int index, String outputFileName, String outputLease, Throwable error)
+    {
+      this.index = index;
+      this.outputFileName = outputFileName;
+      this.outputLease = outputLease;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Render options for the requested output format.
+   * The caller needs to specify the output file or stream.
+   *
+   * @param paginated render page breaks, when rendering single pages
+   * @param imageOwner the document or workspace that images are stored with
+   */
+  private IRenderOption createRenderOption(RenderMetaData metaData, boolean paginated, String imageOwner)
+  {
+    return BirtUtil.createRenderOption(
+        metaData.getFormat(), paginated,
+        outputStore.getImageDirectory(imageOwner).getAbsolutePath(),
+        OutputStore.getImageBaseUrl(metaData.getImageBaseUrl(), imageOwner)
+    );
+  }
+
+  /**
+   * Direct the output either to a stream or to a file in the workspace.
+   *
+   * @return the output file name relative to the output directory, or null when streaming
+   */
+  private String setOutputTarget(IRenderOption options, RenderMetaData metaData, OutputStream out, String workspace)
+  {
+    if(out!=null)
+    {
+      options.setOutputStream(out);
+      return null;
+    }
+
+    File output = new File(
+        outputStore.getWorkspace(workspace),
+        extactReportName(metaData.getReportName()) + getFileExtension(metaData.getFormat())
+    );
+    options.setOutputFileName(output.getAbsolutePath());
+    return outputStore.relativize(output);
+  }
+
+  private static void flush(OutputStream out)
+  {
+    if(out!=null)
+    {
+      try
+      {
+        out.flush();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException("Failed to write report output", e);
+      }
+    }
+  }
+
+  private static String getFileExtension(RenderMetaData.Format format)
+  {
+    return format==RenderMetaData.Format.PDF ? ".pdf" : ".html";
+  }
+
+  /**
+   * Execute work on a render thread and wait for the result.
+   * Work is scheduled by the priority and deadline of the request.<p>
+   *
+   * Output that is leased to the caller is timed until it's been written,
+   * see {@link #releaseOutput(RenderMetaData, long)}.
+   */
+  private <T> T execute(RenderMetaData metaData, Callable<T> work)
+  {
+    // part of a request that is timed already, i.e. the page count of a viewed page
+    boolean timed = metaData.getServeTimer()!=null;
+    RenderMetrics.Timer serve = timed ? null : startTimer(RenderMetrics.Phase.SERVE, metaData);
+    long submitted = System.nanoTime();
+    RenderControl control = new RenderControl(metaData.toString());
+    Future<T> future;
+    try
+    {
+      future = renderScheduler.submit(
+          controlled(metaData, control, submitted, metaData.getTimeout(), work),
+          metaData.getPriority(), metaData.getDeadline(), metaData.getReportName()
+      );
+    }
+    catch (RejectedExecutionException e)
+    {
+      metrics.count(metaData.getReportName(), ReportMetrics.Outcome.REJECTED);
+      throw e;
+    }
+
+    boolean served = false;
+    try
+    {
+      T result = future.get();
+      served = true;
+      if(serve!=null && metaData.getOutputLease()!=null)
+        metaData.setServeTimer(serve); // stopped once the output has been written
+      else if(serve!=null)
+        serve.stop(result instanceof String ? getOutputSize((String)result, null) : -1, -1);
+      return result;
+    }
+    catch (InterruptedException e)
+    {
+      future.cancel(true);
+      control.cancel("caller interrupted");
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for report", e);
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+
+      // dropped from the queue before it ran
+      if(cause instanceof RejectedExecutionException)
+        metrics.count(metaData.getReportName(), ReportMetrics.Outcome.REJECTED);
+
+      if(cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      else if(cause instanceof Error)
+        throw (Error)cause;
+      else
+        throw new RuntimeException(cause.getMessage(), cause);
+    }
+    finally
+    {
+      // failed requests take time, too
+      if(!served && !timed)
+        metrics.record(metaData.getReportName(), RenderMetrics.Phase.SERVE, System.nanoTime() - submitted);
+    }
+  }
+
+  /**
+   * Bind the control to the render thread while the work runs,
+   * and cancel it when the time budget of the report or request is exceeded.
+   *
+   * @param requestedTimeout the budget of the request, zero if only the report's applies
+   */
+  private <T> Callable<T> controlled(
+      final RenderMetaData metaData, final RenderControl control, final long submitted,
+      final long requestedTimeout, final Callable<T> work)
+  {
+    return new Callable<T>()
+    {
+      public T call() throws Exception
+      {
+        String reportName = metaData.getReportName();
+        metrics.record(reportName, RenderMetrics.Phase.QUEUE, System.nanoTime() - submitted);
+        metrics.renderStarted();
+        ReportMetrics.Outcome outcome = ReportMetrics.Outcome.FAILED;
+
+        final long timeout = renderTimeouts.getTimeout(metaData.getReportName(), requestedTimeout);
+        ScheduledFuture<?> timer = null;
+        if(timeout > 0)
+        {
+          timer = watchdog.schedule(
+              new Runnable()
+              {
+                public void run()
+                {
+                  control.cancel("timed out after " + timeout + " ms");
+                }
+              }, timeout, TimeUnit.MILLISECONDS
+          );
+        }
+
+        RenderControl.bind(control);
+        try
+        {
+          control.check();
+          T result = work.call();
+          outcome = ReportMetrics.Outcome.COMPLETED;
+          return result;
+        }
+        catch (Exception e)
+        {
+          // report why it failed, rather than the engine's view of it
+          control.check();
+          throw e;
+        }
+        finally
+        {
+          RenderControl.unbind();
+          if(timer!=null)
+            timer.cancel(false);
+
+          if(outcome==ReportMetrics.Outcome.FAILED && control.isCancelled())
+            outcome = ReportMetrics.Outcome.CANCELLED;
+          metrics.count(reportName, outcome);
+          metrics.renderFinished();
+        }
+      }
+    };
+  }
+
+  /* the engine task is cancelled along with the render on this thread */
+  private static void attach(IEngineTask task)
+  {
+    RenderControl control = RenderControl.current();
+    if(control!=null)
+      control.attach(task);
+  }
+
+  private static void detach()
+  {
+    RenderControl control = RenderControl.current();
+    if(control!=null)
+      control.detach();
+  }
+
+  private static void checkCancelled()
+  {
+    RenderControl control = RenderControl.current();
+    if(control!=null)
+      control.check();
+  }
+
+  /* a failed write to the client cancels the render */
+  private static OutputStream guard(OutputStream out)
+  {
+    RenderControl control = RenderControl.current();
+    return control!=null ? control.guard(out) : out;
+  }
+
+  /**
+   * Release the output of a view, once it's been served.
+   * Until then it's not removed, even if the output directory exceeds the quota.
+   */
+  public void releaseOutput(RenderMetaData metaData)
+  {
+    releaseOutput(metaData, -1);
+  }
+
+  /**
+   * Release the output of a view and complete the request's {@link RenderMetrics.Phase#SERVE} phase.
+   *
+   * @param bytes written to the client, -1 if unknown
+   */
+  public void releaseOutput(RenderMetaData metaData, long bytes)
+  {
+    RenderMetrics.Timer serve = metaData.getServeTimer();
+    metaData.setServeTimer(null);
+    if(serve!=null)
+      serve.stop(bytes, -1);
+
+    String lease = metaData.getOutputLease();
+    metaData.setOutputLease(null);
+    if(lease!=null)
+      outputStore.release(lease);
+  }
+
+  /* completed output stays leased by the caller, see releaseOutput */
+  private void handOver(RenderMetaData metaData, String workspace, boolean completed)
+  {
+    if(completed)
+      metaData.setOutputLease(workspace);
+    else
+      outputStore.discard(workspace);
+  }
+
+  /* cached pages are removed along with their document */
+  private void handOver(RenderMetaData metaData, String documentId)
+  {
+    lease(documentId);
+    metaData.setOutputLease(documentId);
+  }
+
+  /* partial output of a failed or cancelled render is removed right away */
+  private void releaseWorkspace(String workspace, boolean completed)
+  {
+    if(completed)
+      outputStore.release(workspace);
+    else
+      outputStore.discard(workspace);
+  }
+
+  private IReportRunnable openCached(String reportName)
+      throws EngineException
+  {
+    return openCached(catalogue, reportName);
+  }
+
+  private IReportRunnable openCached(Catalogue current, String reportName)
+      throws EngineException
+  {
+    IReportRunnable design = current.designs.get(reportName);
+    if(null==design)
+    {
+      String version = readDesignVersion(reportName);
+      RenderMetrics.Timer timer = metrics.start(RenderMetrics.Phase.OPEN, reportName, null, 0);
+      design = engine.openReportDesign(
+          iConfig.getReportDir()+reportName
+      );
+      timer.stop(new File(iConfig.getReportDir()+reportName).length(), -1);
+
+      // the version first, it's looked up without the design
+      current.versions.put(reportName, version);
+      current.designs.put(reportName, design);
+    }
+    return design;
+  }
+
+  private IReportDocument openDocument(String reportName, File documentFile)
+      throws EngineException
+  {
+    RenderMetrics.Timer timer = metrics.start(RenderMetrics.Phase.OPEN, reportName, null, 0);
+    IReportDocument document = engine.openReportDocument(documentFile.getAbsolutePath());
+    timer.stop(documentFile.length(), document.getPageCount());
+    return document;
+  }
+
+  private RenderMetrics.Timer startTimer(RenderMetrics.Phase phase, RenderMetaData metaData)
+  {
+    RenderMetaData.Format format = metaData.getFormat();
+    return metrics.start(
+        phase, metaData.getReportName(), format!=null ? format.name() : null, metaData.getParameters().hashCode()
+    );
+  }
+
+  /* bytes written to a stream, or the size of the output file */
+  private long getOutputSize(String outputFileName, CountingOutputStream counted)
+  {
+    if(counted!=null)
+      return counted.getCount();
+
+    if(null==outputFileName)
+      return -1;
+
+    File output = new File(iConfig.getOutputDir() + outputFileName);
+    return output.isFile() ? output.length() : -1;
+  }
+
+  /* the default JFR listener is only available along with the report-jfr module */
+  private RenderListener createRenderListener()
+  {
+    String className = iConfig.getRenderListener();
+    if(null==className || className.length()==0)
+      return null;
+
+    try
+    {
+      RenderListener listener = (RenderListener)Class.forName(className).newInstance();
+      log.info("Render listener: " + className);
+      return listener;
+    }
+    catch (ClassNotFoundException e)
+    {
+      log.debug("Render listener not available: " + className);
+    }
+    catch (Throwable t)
+    {
+      // i.e. flight recorder events aren't supported by this JVM
+      log.warn("Failed to create render listener " + className + ": " + t);
+    }
+    return null;
+  }
+
+  /**
+   * Re-parse changed report designs and swap them into the catalogue.
+   * Renders in progress finish with the design they started with.
+   *
+   * @param changed names of new or modified designs
+   * @param removed names of deleted designs
+   */
+  public void reload(Collection<String> changed, Collection<String> removed)
+  {
+    if( (currentState==State.CREATED || currentState==State.STARTED) == false)
+      throw new IllegalStateException("Cannot reload designs in state " + currentState);
+
+    synchronized(this)
+    {
+      Catalogue next = new Catalogue(catalogue);
+
+      for(String reportName : removed)
+      {
+        log.info("Remove report design " + reportName);
+        next.designs.remove(reportName);
+        next.versions.remove(reportName);
+        next.reports.remove(reportName);
+        metaDataSnapshot.remove(reportName);
+      }
+
+      for(String reportName : changed)
+      {
+        try
+        {
+          String version = readDesignVersion(reportName);
+          IReportRunnable design = engine.openReportDesign(
+              iConfig.getReportDir()+reportName
+          );
+
+          next.versions.put(reportName, version);
+          next.designs.put(reportName, design);
+          next.reports.put(reportName, newReportReference(reportName));
+          log.info("Reloaded report design " + reportName);
+        }
+        catch (Exception e)
+        {
+          // keep the previous version
+          log.error("Failed to reload report design " + reportName, e);
+        }
+      }
+
+      catalogue = next;
+      selectionLists.clear();
+    }
+  }
+
+  public IntegrationConfig getIntegrationConfig()
   {
     return iConfig;
   }
 
+  public RenderMetrics getMetrics()
+  {
+    return metrics;
+  }
+
   private static String extactReportName(String reportFile)
   {
     return reportFile.substring( 0, reportFile.indexOf("."));
@@ -453,14 +2303,120 @@ public class BirtService
     return currentState;
   }
 
+  private static class NamedThreadFactory implements ThreadFactory
+  {
+    private String prefix;
+    private AtomicInteger count = new AtomicInteger();
+
+    NamedThreadFactory(String prefix)
+    {
+      this.prefix = prefix;
+    }
+
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
   public List<ReportReference> getReportReferences()
   {
     if( (currentState==State.CREATED || currentState==State.STARTED) == false)
       throw new IllegalStateException("Cannot acccess report references in state " + currentState);
 
+    // meta data that isn't available yet is extracted in the background
+    Map<String, FutureTask<ReportReference>> reports =
+        new TreeMap<String, FutureTask<ReportReference>>(catalogue.reports);
+    for(Map.Entry<String, FutureTask<ReportReference>> e : reports.entrySet())
+    {
+      if(e.getValue().isDone())
+        continue;
+
+      try
+      {
+        renderScheduler.executor(RenderMetaData.Priority.BACKGROUND, e.getKey()).execute(e.getValue());
+      }
+      catch (RejectedExecutionException ex)
+      {
+        log.debug("Defer meta data extraction of " + e.getKey() + ": " + ex.getMessage());
+      }
+    }
+
     ArrayList<ReportReference> list = new ArrayList<ReportReference>();
-    for(String s : reports.keySet())
-      list.add(reports.get(s));
+    long giveUp = System.currentTimeMillis() + REFERENCES_WAIT;
+    for(Map.Entry<String, FutureTask<ReportReference>> e : reports.entrySet())
+    {
+      String reportName = e.getKey();
+      FutureTask<ReportReference> task = e.getValue();
+      try
+      {
+        if(task.isDone())
+        {
+          list.add(task.get());
+          continue;
+        }
+
+        // a snapshot is good enough until the extraction completes
+        File designFile = new File(iConfig.getReportDir()+reportName);
+        ReportReference reportRef = metaDataSnapshot.lookup(reportName, designFile);
+        if(null==reportRef)
+          reportRef = task.get(Math.max(0, giveUp - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        list.add(reportRef);
+      }
+      catch (TimeoutException ex)
+      {
+        log.debug("Meta data of " + reportName + " is still being extracted");
+        list.add(newPendingReference(reportName));
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while loading report meta data", ex);
+      }
+      catch (ExecutionException ex)
+      {
+        // don't memoize failures, the next access tries again
+        catalogue.reports.replace(reportName, task, newReportReference(reportName));
+        log.error("Skip report " + reportName, ex.getCause());
+      }
+    }
     return list;
   }
+
+  /* listed by name until it's meta data is available */
+  private static ReportReference newPendingReference(String reportName)
+  {
+    ReportReference reportRef = new ReportReference(reportName);
+    reportRef.setTitle(reportName);
+    reportRef.setDescription("Loading report details, please try again later");
+    return reportRef;
+  }
+
+  /**
+   * Report designs and their (lazily extracted) meta data. Updates are copy-on-write,
+   * so that readers always see a consistent pair.
+   */
+  private static class Catalogue
+  {
+    final Map<String, IReportRunnable> designs;
+    /* version of each parsed design, see getDesignVersion */
+    final Map<String, String> versions;
+    final ConcurrentMap<String, FutureTask<ReportReference>> reports;
+
+    Catalogue()
+    {
+      this.designs = new ConcurrentHashMap<String, IReportRunnable>();
+      this.versions = new ConcurrentHashMap<String, String>();
+      this.reports = new ConcurrentHashMap<String, FutureTask<ReportReference>>();
+    }
+
+    Catalogue(Catalogue other)
+    {
+      this.designs = new ConcurrentHashMap<String, IReportRunnable>(other.designs);
+      this.versions = new ConcurrentHashMap<String, String>(other.versions);
+      this.reports = new ConcurrentHashMap<String, FutureTask<ReportReference>>(other.reports);
+    }
+  }
 }
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the report directory and reloads report designs that have been
+ * added, changed or removed, without restarting the engine.<p>
+ *
+ * The directory is polled. A changed design is reloaded once it
+ * didn't change between two polls, so that partially copied files are not parsed.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class DesignWatcher
+{
+  private static final Log log = LogFactory.getLog(DesignWatcher.class);
+
+  private BirtService birtService;
+  private File reportDir;
+  private long interval;
+  private ScheduledExecutorService executor;
+
+  /* design name -> version of the loaded designs */
+  private Map<String, String> loaded;
+
+  /* design name -> version seen on the last poll, not yet loaded */
+  private Map<String, String> pending = new HashMap<String, String>();
+
+  public DesignWatcher(BirtService birtService, File reportDir, long interval)
+  {
+    this.birtService = birtService;
+    this.reportDir = reportDir;
+    this.interval = interval;
+  }
+
+  public void start()
+  {
+    if(interval <= 0)
+    {
+      log.debug("Report design reloading disabled");
+      return;
+    }
+
+    loaded = scan();
+
+    executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable r)
+          {
+            Thread t = new Thread(r, "BirtService-Reload");
+            t.setDaemon(true);
+            return t;
+          }
+        }
+    );
+
+    executor.scheduleWithFixedDelay(
+        new Runnable()
+        {
+          public void run()
+          {
+            try
+            {
+              poll();
+            }
+            catch (Throwable t)
+            {
+              log.error("Failed to check report designs", t);
+            }
+          }
+        }, interval, interval, TimeUnit.MILLISECONDS
+    );
+
+    log.info("Check report designs for changes every " + interval + " ms");
+  }
+
+  public void stop()
+  {
+    if(executor!=null)
+      executor.shutdownNow();
+  }
+
+  private void poll()
+  {
+    Map<String, String> current = scan();
+
+    Set<String> changed = new HashSet<String>();
+    for(Map.Entry<String,String> e : current.entrySet())
+    {
+      String name = e.getKey();
+      String version = e.getValue();
+      if(version.equals(loaded.get(name)))
+      {
+        pending.remove(name);
+        continue;
+      }
+
+      // wait until the file is stable
+      if(version.equals(pending.get(name)))
+        changed.add(name);
+      else
+        pending.put(name, version);
+    }
+
+    Set<String> removed = new HashSet<String>(loaded.keySet());
+    removed.removeAll(current.keySet());
+    pending.keySet().retainAll(current.keySet());
+
+    if(changed.isEmpty() && removed.isEmpty())
+      return;
+
+    birtService.reload(changed, removed);
+
+    for(String name : changed)
+    {
+      loaded.put(name, pending.remove(name));
+    }
+    for(String name : removed)
+    {
+      loaded.remove(name);
+    }
+  }
+
+  private Map<String, String> scan()
+  {
+    Map<String, String> versions = new HashMap<String, String>();
+    File[] designs = reportDir.listFiles(
+        new FilenameFilter()
+        {
+          public boolean accept(File dir, String name)
+          {
+            return name.endsWith(".rptdesign");
+          }
+        }
+    );
+
+    if(designs!=null)
+    {
+      for(File f : designs)
+        versions.put(f.getName(), f.lastModified() + "-" + f.length());
+    }
+    return versions;
+  }
+}
@@ -0,0 +1,607 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.util.FileUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+/**
+ * Content addressed store for report documents (<code>.rptdocument</code>).<p>
+ *
+ * Documents are keyed by report name, design version and the canonicalized
+ * render parameters. The index is kept in <code>index.properties</code>
+ * next to the documents, so cached documents survive a restart.
+ * It's written through {@link #save()}, periodically rather than on every change.
+ * Entries are evicted when they exceed the maximum age or when the
+ * total size of the store exceeds the maximum size (least recently used first).
+ * Output derived from a document (i.e. rendered pages) can be kept in the
+ * document's page directory and is removed along with the document.
+ * Documents that are leased through the {@link OutputStore} are not evicted.<p>
+ *
+ * Documents are spread across subdirectories by the first two characters of their key:
+ * <code>documents/ab/ab12....&lt;generation&gt;.rptdocument</code><p>
+ *
+ * A refresh commits the new document under a new generation. The previous one,
+ * along with it's pages, is retired and removed once the key isn't leased anymore,
+ * so that readers in progress aren't affected.<p>
+ *
+ * When the directory is shared between several nodes, documents rendered by
+ * other nodes are adopted instead of removed. Eviction is still decided per node
+ * and each node keeps it's own index (<code>index-&lt;node&gt;.properties</code>),
+ * so that nodes don't overwrite each other's entries.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class DocumentCache
+{
+  private static final Log log = LogFactory.getLog(DocumentCache.class);
+
+  private static final String INDEX_FILE = "index.properties";
+  private static final String INDEX_PREFIX = "index";
+  private static final String SUFFIX = ".rptdocument";
+  private static final String PAGES_SUFFIX = ".pages";
+
+  /* scratch files of other nodes may still be written to */
+  private static final long SHARED_SCRATCH_MAX_AGE = 60 * 60 * 1000L;
+
+  private File cacheDir;
+  private long maxAge;
+  private long maxSize;
+  private OutputStore outputStore;
+  private boolean shared;
+  private String indexFileName = INDEX_FILE;
+
+  private Map<String, Entry> entries = new HashMap<String, Entry>();
+  /* replaced documents -> their key, removed when the key isn't leased anymore */
+  private Map<File, String> retired = new HashMap<File, String>();
+  /* the index changed since it was last written, guarded by this */
+  private boolean modified;
+  /* serializes writes of the index, taken before the cache monitor */
+  private final Object indexLock = new Object();
+
+  public DocumentCache(File cacheDir, long maxAge, long maxSize, OutputStore outputStore)
+  {
+    this.cacheDir = cacheDir;
+    this.maxAge = maxAge;
+    this.maxSize = maxSize;
+    this.outputStore = outputStore;
+  }
+
+  /**
+   * The directory is shared with other nodes
+   *
+   * @param nodeId identifies the index of this node
+   */
+  public void setShared(boolean shared, String nodeId)
+  {
+    this.shared = shared;
+    this.indexFileName = shared
+        ? INDEX_PREFIX + "-" + nodeId.replaceAll("[^A-Za-z0-9._-]", "_") + ".properties"
+        : INDEX_FILE;
+  }
+
+  /**
+   * Create a cache key from the report name, the design version
+   * and the render parameters. Parameter order doesn't matter.
+   */
+  public static String createKey(String reportName, String designVersion, Map<String,String> parameters)
+  {
+    StringBuffer sb = new StringBuffer();
+    append(sb, reportName);
+    append(sb, designVersion);
+
+    Map<String,String> canonical = new TreeMap<String,String>(parameters);
+    for(String name : canonical.keySet())
+    {
+      append(sb, name);
+      append(sb, canonical.get(name));
+    }
+
+    try
+    {
+      return DigestUtils.shaHex(sb.toString().getBytes("UTF-8"));
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // length prefixed, so that ("ab","c") and ("a","bc") don't collide
+  private static void append(StringBuffer sb, String s)
+  {
+    if(null==s)
+      sb.append("-1:");
+    else
+      sb.append(s.length()).append(":").append(s);
+  }
+
+  public synchronized void load()
+  {
+    cacheDir.mkdirs();
+
+    File indexFile = new File(cacheDir, indexFileName);
+    if(indexFile.exists())
+    {
+      Properties index = new Properties();
+      FileInputStream in = null;
+      try
+      {
+        in = new FileInputStream(indexFile);
+        index.load(in);
+      }
+      catch (IOException e)
+      {
+        log.warn("Failed to read document cache index, starting with an empty cache", e);
+        index.clear();
+      }
+      finally
+      {
+        FileUtil.close(in);
+      }
+
+      for(Object k : index.keySet())
+      {
+        String key = (String)k;
+        Entry entry = Entry.parse(key, index.getProperty(key));
+        if(entry!=null && getFile(key, entry.generation).exists())
+          entries.put(key, entry);
+      }
+    }
+
+    // remove documents that are not (or no longer) indexed
+    long now = System.currentTimeMillis();
+    for(File f : cacheDir.listFiles())
+    {
+      if(isIndex(f))
+        continue;
+
+      if(f.isDirectory() && f.getName().length()==2)
+      {
+        for(File g : f.listFiles())
+        {
+          String key = getKey(g.getName());
+          if(shared && key!=null && adopt(key))
+            continue;
+          if(null==key || !entries.containsKey(key) || !isCurrent(key, g))
+            FileUtil.delete(g);
+        }
+      }
+      else if(!shared || now - f.lastModified() > SHARED_SCRATCH_MAX_AGE)
+      {
+        // scratch files, or the flat layout of previous versions
+        FileUtil.delete(f);
+      }
+    }
+
+    log.info("Document cache loaded: " + entries.size() + " documents in " + cacheDir);
+    evict();
+  }
+
+  /**
+   * Lookup a cached document.
+   *
+   * @return the document file or null if there is no valid entry
+   */
+  public synchronized File lookup(String key)
+  {
+    if(shared)
+      adopt(key);
+
+    Entry entry = entries.get(key);
+    if(null==entry)
+      return null;
+
+    File file = getFile(key, entry.generation);
+    if(!file.exists() || isExpired(entry, System.currentTimeMillis()))
+    {
+      if(!outputStore.isLeased(key))
+        remove(key);
+      return null;
+    }
+
+    entry.lastAccess = System.currentTimeMillis();
+    modified = true;
+    return file;
+  }
+
+  /**
+   * @return true if the document is cached, i.e. it's images are still in use
+   */
+  public synchronized boolean contains(String key)
+  {
+    return entries.containsKey(key) || (shared && findFile(key)!=null);
+  }
+
+  /**
+   * @return the time the document was rendered, or -1 if there is no such document
+   */
+  public synchronized long getCreated(String key)
+  {
+    Entry entry = entries.get(key);
+    return entry!=null ? entry.created : -1;
+  }
+
+  /**
+   * A scratch file to run a report into.
+   * Needs to be committed through {@link #put(String, File)}.
+   */
+  public File createTempFile(String key)
+  {
+    return new File(cacheDir, key + "-" + UUID.randomUUID() + ".tmp");
+  }
+
+  /**
+   * Move a document into the cache. A document that is replaced
+   * is retired, until it isn't leased anymore.
+   *
+   * @return the cached document file
+   */
+  public synchronized File put(String key, File document)
+  {
+    long now = System.currentTimeMillis();
+    Entry previous = entries.get(key);
+
+    Entry entry = new Entry();
+    entry.generation = previous!=null ? Math.max(now, previous.generation + 1) : now;
+    File file = getFile(key, entry.generation);
+    file.getParentFile().mkdirs();
+
+    if(!document.renameTo(file))
+      throw new IllegalStateException("Failed to move " + document + " to " + file);
+
+    if(previous!=null)
+      retire(key, previous);
+
+    entry.created = now;
+    entry.lastAccess = now;
+    entry.size = file.length();
+    entries.put(key, entry);
+    modified = true;
+
+    evict();
+    return file;
+  }
+
+  /**
+   * Drop expired documents and shrink the cache
+   * below it's maximum size (least recently used first).
+   */
+  public synchronized void evict()
+  {
+    purgeRetired();
+
+    long now = System.currentTimeMillis();
+    long total = 0;
+
+    Iterator<String> keys = new ArrayList<String>(entries.keySet()).iterator();
+    while(keys.hasNext())
+    {
+      String key = keys.next();
+      Entry entry = entries.get(key);
+      if(isExpired(entry, now) && !outputStore.isLeased(key))
+        remove(key);
+      else
+        total += entry.size;
+    }
+
+    if(total > maxSize)
+      evictLeastRecentlyUsed(total - maxSize);
+  }
+
+  /**
+   * Evict least recently used documents, i.e. to meet the output directory quota.
+   *
+   * @param bytes the amount of disk space to free
+   * @return the amount of disk space that has been freed
+   */
+  public synchronized long shrink(long bytes)
+  {
+    return evictLeastRecentlyUsed(bytes);
+  }
+
+  private long evictLeastRecentlyUsed(long bytes)
+  {
+    List<Map.Entry<String,Entry>> lru = new ArrayList<Map.Entry<String,Entry>>(entries.entrySet());
+    Collections.sort(lru, new Comparator<Map.Entry<String,Entry>>()
+    {
+      public int compare(Map.Entry<String, Entry> a, Map.Entry<String, Entry> b)
+      {
+        long diff = a.getValue().lastAccess - b.getValue().lastAccess;
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+      }
+    });
+
+    long freed = 0;
+    for(Map.Entry<String,Entry> e : lru)
+    {
+      if(freed >= bytes)
+        break;
+
+      String key = e.getKey();
+      if(outputStore.isLeased(key))
+        continue;
+
+      freed += e.getValue().size + FileUtil.size(getPageDirectory(getFile(key, e.getValue().generation)));
+      remove(key);
+    }
+    return freed;
+  }
+
+  private boolean isExpired(Entry entry, long now)
+  {
+    return now - entry.created > maxAge;
+  }
+
+  private void remove(String key)
+  {
+    Entry entry = entries.remove(key);
+    if(null==entry)
+      return;
+
+    modified = true;
+    delete(getFile(key, entry.generation));
+    log.debug("Evicted document " + key);
+  }
+
+  /* a replaced document is removed right away, unless it's being read */
+  private void retire(String key, Entry entry)
+  {
+    File file = getFile(key, entry.generation);
+    if(outputStore.isLeased(key))
+      retired.put(file, key);
+    else
+      delete(file);
+  }
+
+  private void purgeRetired()
+  {
+    Iterator<Map.Entry<File, String>> it = retired.entrySet().iterator();
+    while(it.hasNext())
+    {
+      Map.Entry<File, String> e = it.next();
+      if(!outputStore.isLeased(e.getValue()))
+      {
+        delete(e.getKey());
+        it.remove();
+      }
+    }
+  }
+
+  /* a document and it's pages */
+  private void delete(File file)
+  {
+    if(file.exists() && !file.delete())
+      log.warn("Failed to delete cached document " + file);
+    FileUtil.delete(getPageDirectory(file));
+  }
+
+  /* index a document that has been rendered by another node */
+  private boolean adopt(String key)
+  {
+    if(entries.containsKey(key))
+      return true;
+
+    File file = findFile(key);
+    if(null==file)
+      return false;
+
+    Entry entry = new Entry();
+    entry.generation = getGeneration(file.getName());
+    entry.created = file.lastModified();
+    entry.lastAccess = System.currentTimeMillis();
+    entry.size = file.length();
+    entries.put(key, entry);
+    modified = true;
+    return true;
+  }
+
+  /* generation 0 is the name used by previous versions */
+  private File getFile(String key, long generation)
+  {
+    String name = generation > 0 ? key + "." + generation + SUFFIX : key + SUFFIX;
+    return new File(getShard(key), name);
+  }
+
+  /* the latest generation of a document rendered by another node */
+  private File findFile(String key)
+  {
+    File[] files = getShard(key).listFiles();
+    if(null==files)
+      return null;
+
+    File latest = null;
+    for(File f : files)
+    {
+      String name = f.getName();
+      if(name.endsWith(SUFFIX) && key.equals(getKey(name))
+          && (null==latest || getGeneration(name) > getGeneration(latest.getName())))
+        latest = f;
+    }
+    return latest;
+  }
+
+  /* the file belongs to the indexed generation of a document */
+  private boolean isCurrent(String key, File file)
+  {
+    return getGeneration(file.getName())==entries.get(key).generation;
+  }
+
+  private File getShard(String key)
+  {
+    return new File(cacheDir, OutputStore.getShard(key));
+  }
+
+  private static String getKey(String fileName)
+  {
+    String name = getBaseName(fileName);
+    if(null==name)
+      return null;
+    int dot = name.indexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  private static long getGeneration(String fileName)
+  {
+    String name = getBaseName(fileName);
+    int dot = name!=null ? name.indexOf('.') : -1;
+    if(dot < 0)
+      return 0;
+
+    try
+    {
+      return Long.parseLong(name.substring(dot + 1));
+    }
+    catch (NumberFormatException e)
+    {
+      return -1;
+    }
+  }
+
+  /* key and generation */
+  private static String getBaseName(String fileName)
+  {
+    if(fileName.endsWith(SUFFIX))
+      return fileName.substring(0, fileName.length()-SUFFIX.length());
+    else if(fileName.endsWith(PAGES_SUFFIX))
+      return fileName.substring(0, fileName.length()-PAGES_SUFFIX.length());
+    return null;
+  }
+
+  /**
+   * Directory for output derived from a cached document, as returned by {@link #lookup(String)}.
+   * It's not created by default.
+   */
+  public File getPageDirectory(File document)
+  {
+    String name = document.getName();
+    return new File(document.getParentFile(), name.substring(0, name.length()-SUFFIX.length()) + PAGES_SUFFIX);
+  }
+
+  /**
+   * Write the index, including access times, if it changed since it was last written.
+   * The cache isn't locked while the file is written.
+   */
+  public void save()
+  {
+    synchronized(indexLock)
+    {
+      Properties index = new Properties();
+      synchronized(this)
+      {
+        if(!modified)
+          return;
+        for(String key : entries.keySet())
+          index.setProperty(key, entries.get(key).toString());
+        modified = false;
+      }
+
+      if(!write(index))
+      {
+        synchronized(this)
+        {
+          modified = true;
+        }
+      }
+    }
+  }
+
+  private boolean write(Properties index)
+  {
+    File indexFile = new File(cacheDir, indexFileName);
+    File tmpFile = new File(cacheDir, indexFileName + "-" + UUID.randomUUID() + ".tmp");
+    FileOutputStream out = null;
+    try
+    {
+      out = new FileOutputStream(tmpFile);
+      index.store(out, "Report document cache");
+      out.close();
+      out = null;
+
+      indexFile.delete();
+      if(tmpFile.renameTo(indexFile))
+        return true;
+      log.warn("Failed to write document cache index " + indexFile);
+    }
+    catch (IOException e)
+    {
+      log.warn("Failed to write document cache index", e);
+    }
+    finally
+    {
+      FileUtil.close(out);
+    }
+    tmpFile.delete();
+    return false;
+  }
+
+  /* the index of this node, or of another one sharing the directory */
+  private boolean isIndex(File f)
+  {
+    String name = f.getName();
+    if(shared)
+      return f.isFile() && name.startsWith(INDEX_PREFIX) && name.endsWith(".properties");
+    return name.equals(indexFileName);
+  }
+
+  private static class Entry
+  {
+    long generation;
+    long created;
+    long lastAccess;
+    long size;
+
+    static Entry parse(String key, String value)
+    {
+      try
+      {
+        String[] tuple = value.split(",");
+        Entry entry = new Entry();
+        entry.created = Long.parseLong(tuple[0]);
+        entry.lastAccess = Long.parseLong(tuple[1]);
+        entry.size = Long.parseLong(tuple[2]);
+        if(tuple.length > 3)
+          entry.generation = Long.parseLong(tuple[3]);
+        return entry;
+      }
+      catch (Exception e)
+      {
+        log.warn("Ignore invalid document cache entry " + key);
+        return null;
+      }
+    }
+
+    public String toString()
+    {
+      return created + "," + lastAccess + "," + size + "," + generation;
+    }
+  }
+}
@@ -21,6 +21,8 @@
  */
 package org.jboss.bpm.report;
 
+import java.lang.management.ManagementFactory;
+
 /**
  * Adopts an integration layout (i.e. working directories) to BIRT configuration.
  *
@@ -33,6 +35,31 @@ public class IntegrationConfig
    private String outputDir = null;
    private String imageBaseUrl = null;
 
+   private long documentCacheMaxAge = 24 * 60 * 60 * 1000L;
+   private long documentCacheMaxSize = 512 * 1024 * 1024L;
+
+   private int renderThreads = Runtime.getRuntime().availableProcessors();
+   private int renderQueueSize = 100;
+   private int jobQueueSize = 1000;
+   private long interactiveDeadline = 60 * 1000L;
+   private long renderTimeout = 10 * 60 * 1000L;
+   private long workspaceMaxAge = 10 * 60 * 1000L;
+   private long outputQuota = 2 * 1024 * 1024 * 1024L;
+   private long reloadInterval = 5 * 1000L;
+   private int preloadThreads = 0;
+   private long selectionListMaxAge = 5 * 60 * 1000L;
+
+   private int workerProcesses = 0;
+   private int workerMaxRenders = 100;
+   private String workerJvmArgs = "-Xmx512m";
+   private String workerClasspath = System.getProperty("java.class.path");
+
+   private boolean sharedOutput = false;
+   private String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+   private long leaseTimeout = 60 * 1000L;
+
+   private String renderListener = "org.jboss.bpm.report.jfr.JfrRenderListener";
+
    public String getBirtHome()
    {
       return birtHome;
@@ -74,6 +101,285 @@ public class IntegrationConfig
       return getOutputDir()+"image/";
    }
 
+   public String getDocumentDirectory()
+   {
+      return getOutputDir()+"documents/";
+   }
+
+   /**
+    * Each render request writes it's output into a private workspace below this directory
+    */
+   public String getWorkspaceDirectory()
+   {
+      return getOutputDir()+"work/";
+   }
+
+   /**
+    * Max age (in ms) of a cached report document
+    */
+   public long getDocumentCacheMaxAge()
+   {
+      return documentCacheMaxAge;
+   }
+
+   public void setDocumentCacheMaxAge(long documentCacheMaxAge)
+   {
+      this.documentCacheMaxAge = documentCacheMaxAge;
+   }
+
+   /**
+    * Max size (in bytes) of all cached report documents
+    */
+   public long getDocumentCacheMaxSize()
+   {
+      return documentCacheMaxSize;
+   }
+
+   public void setDocumentCacheMaxSize(long documentCacheMaxSize)
+   {
+      this.documentCacheMaxSize = documentCacheMaxSize;
+   }
+
+   /**
+    * Number of threads rendering reports in parallel, at least two.
+    * One of them never runs background work.
+    */
+   public int getRenderThreads()
+   {
+      return renderThreads;
+   }
+
+   public void setRenderThreads(int renderThreads)
+   {
+      this.renderThreads = renderThreads;
+   }
+
+   /**
+    * Number of render requests that may wait for a thread,
+    * before further requests are rejected
+    */
+   public int getRenderQueueSize()
+   {
+      return renderQueueSize;
+   }
+
+   public void setRenderQueueSize(int renderQueueSize)
+   {
+      this.renderQueueSize = renderQueueSize;
+   }
+
+   /**
+    * Number of render jobs that may be queued, before further jobs are rejected
+    */
+   public int getJobQueueSize()
+   {
+      return jobQueueSize;
+   }
+
+   public void setJobQueueSize(int jobQueueSize)
+   {
+      this.jobQueueSize = jobQueueSize;
+   }
+
+   /**
+    * Time (in ms) an interactive request may wait in the render queue before it's dropped.
+    * Zero means no deadline.
+    */
+   public long getInteractiveDeadline()
+   {
+      return interactiveDeadline;
+   }
+
+   public void setInteractiveDeadline(long interactiveDeadline)
+   {
+      this.interactiveDeadline = interactiveDeadline;
+   }
+
+   /**
+    * Time (in ms) a render may take before it's cancelled, unless the report has it's own budget.
+    * Zero means no timeout.
+    */
+   public long getRenderTimeout()
+   {
+      return renderTimeout;
+   }
+
+   public void setRenderTimeout(long renderTimeout)
+   {
+      this.renderTimeout = renderTimeout;
+   }
+
+   /**
+    * Max age (in ms) of a request workspace before it's removed
+    */
+   public long getWorkspaceMaxAge()
+   {
+      return workspaceMaxAge;
+   }
+
+   public void setWorkspaceMaxAge(long workspaceMaxAge)
+   {
+      this.workspaceMaxAge = workspaceMaxAge;
+   }
+
+   /**
+    * Max size (in bytes) of the output directory, including documents, workspaces and images
+    */
+   public long getOutputQuota()
+   {
+      return outputQuota;
+   }
+
+   public void setOutputQuota(long outputQuota)
+   {
+      this.outputQuota = outputQuota;
+   }
+
+   /**
+    * Interval (in ms) to check the report directory for changed designs. Zero disables reloading.
+    */
+   public long getReloadInterval()
+   {
+      return reloadInterval;
+   }
+
+   public void setReloadInterval(long reloadInterval)
+   {
+      this.reloadInterval = reloadInterval;
+   }
+
+   /**
+    * Number of threads to extract report meta data at startup. Zero extracts it on first access.
+    */
+   public int getPreloadThreads()
+   {
+      return preloadThreads;
+   }
+
+   public void setPreloadThreads(int preloadThreads)
+   {
+      this.preloadThreads = preloadThreads;
+   }
+
+   /**
+    * Max age (in ms) of memoized selection lists of cascading parameters
+    */
+   public long getSelectionListMaxAge()
+   {
+      return selectionListMaxAge;
+   }
+
+   public void setSelectionListMaxAge(long selectionListMaxAge)
+   {
+      this.selectionListMaxAge = selectionListMaxAge;
+   }
+
+   /**
+    * Number of worker processes that run reports out of process. Zero runs reports in process.
+    */
+   public int getWorkerProcesses()
+   {
+      return workerProcesses;
+   }
+
+   public void setWorkerProcesses(int workerProcesses)
+   {
+      this.workerProcesses = workerProcesses;
+   }
+
+   /**
+    * Number of renders after which a worker process is replaced
+    */
+   public int getWorkerMaxRenders()
+   {
+      return workerMaxRenders;
+   }
+
+   public void setWorkerMaxRenders(int workerMaxRenders)
+   {
+      this.workerMaxRenders = workerMaxRenders;
+   }
+
+   /**
+    * JVM options of a worker process, i.e. it's heap size
+    */
+   public String getWorkerJvmArgs()
+   {
+      return workerJvmArgs;
+   }
+
+   public void setWorkerJvmArgs(String workerJvmArgs)
+   {
+      this.workerJvmArgs = workerJvmArgs;
+   }
+
+   /**
+    * Classpath of a worker process. It needs the BIRT engine and this module.
+    */
+   public String getWorkerClasspath()
+   {
+      return workerClasspath;
+   }
+
+   public void setWorkerClasspath(String workerClasspath)
+   {
+      this.workerClasspath = workerClasspath;
+   }
+
+   /**
+    * The output directory is shared with other nodes, that coordinate renders through lease files
+    */
+   public boolean isSharedOutput()
+   {
+      return sharedOutput;
+   }
+
+   public void setSharedOutput(boolean sharedOutput)
+   {
+      this.sharedOutput = sharedOutput;
+   }
+
+   /**
+    * Identifies this node in lease files. Defaults to pid@host.
+    */
+   public String getNodeId()
+   {
+      return nodeId;
+   }
+
+   public void setNodeId(String nodeId)
+   {
+      this.nodeId = nodeId;
+   }
+
+   /**
+    * Time (in ms) after which the lease of a node that doesn't renew it is taken over
+    */
+   public long getLeaseTimeout()
+   {
+      return leaseTimeout;
+   }
+
+   public void setLeaseTimeout(long leaseTimeout)
+   {
+      this.leaseTimeout = leaseTimeout;
+   }
+
+   /**
+    * Class name of a {@link org.jboss.bpm.report.metrics.RenderListener}.
+    * It's ignored if the class isn't on the classpath, which is the case for the default JFR listener
+    * unless the report-jfr module is deployed.
+    */
+   public String getRenderListener()
+   {
+      return renderListener;
+   }
+
+   public void setRenderListener(String renderListener)
+   {
+      this.renderListener = renderListener;
+   }
+
    private String ensureDirectoryName(String name)
    {
       if(name.endsWith("/"))
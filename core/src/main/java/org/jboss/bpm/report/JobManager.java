@@ -0,0 +1,419 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.util.FileUtil;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executes render jobs in the background.<p>
+ *
+ * Each state change is appended to a journal (<code>$OUTPUT_DIR/jobs/journal.log</code>).
+ * When the service is restarted the journal is replayed: finished jobs
+ * are available again and queued or interrupted jobs are resubmitted.
+ * Finished jobs are dropped after the retention period.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class JobManager
+{
+  private static final Log log = LogFactory.getLog(JobManager.class);
+
+  private static final String JOURNAL_FILE = "journal.log";
+  private static final String ENCODING = "UTF-8";
+
+  private BirtService birtService;
+  private File journalDir;
+  private int threads;
+  private int queueSize;
+  private long retention;
+
+  private Map<String, RenderJob> jobs = new ConcurrentHashMap<String, RenderJob>();
+  private LinkedBlockingQueue<RenderJob> queue = new LinkedBlockingQueue<RenderJob>();
+
+  private List<Thread> workers = new ArrayList<Thread>();
+  private volatile boolean running;
+  private Writer journal;
+
+  public JobManager(BirtService birtService, File journalDir, int threads, int queueSize, long retention)
+  {
+    this.birtService = birtService;
+    this.journalDir = journalDir;
+    this.threads = threads;
+    this.queueSize = queueSize;
+    this.retention = retention;
+  }
+
+  /**
+   * Replay the journal. Recovered jobs are executed once the workers are started.
+   */
+  public synchronized void open()
+  {
+    journalDir.mkdirs();
+    recover();
+
+    try
+    {
+      journal = new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(new File(journalDir, JOURNAL_FILE), true), ENCODING)
+      );
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Failed to open job journal", e);
+    }
+  }
+
+  public synchronized void start()
+  {
+    running = true;
+    for(int i=0; i<threads; i++)
+    {
+      Thread t = new Thread(new Worker(), "BirtService-Job-" + (i+1));
+      t.setDaemon(true);
+      t.start();
+      workers.add(t);
+    }
+
+    log.info("Job manager started: " + jobs.size() + " jobs, " + queue.size() + " queued");
+  }
+
+  public synchronized void stop()
+  {
+    running = false;
+    for(Thread t : workers)
+      t.interrupt();
+    workers.clear();
+
+    FileUtil.close(journal);
+    journal = null;
+  }
+
+  /**
+   * Queue a render job. Returns immediately.
+   *
+   * @throws RejectedExecutionException if the job queue is full
+   */
+  public synchronized RenderJob submit(RenderMetaData metaData)
+  {
+    // recovered and retried jobs may exceed it, new ones don't
+    if(queue.size() >= queueSize)
+      throw new RejectedExecutionException("Job queue is full: " + queue.size() + " jobs queued");
+
+    RenderJob job = new RenderJob(UUID.randomUUID().toString(), metaData.getReportName(), metaData.getFormat());
+    job.getParameters().putAll(metaData.getParameters());
+    job.setSubmitted(System.currentTimeMillis());
+
+    jobs.put(job.getId(), job);
+    record(job);
+    queue.add(job);
+    return job;
+  }
+
+  public RenderJob getJob(String id)
+  {
+    return jobs.get(id);
+  }
+
+  public int getQueueSize()
+  {
+    return queue.size();
+  }
+
+  /**
+   * Drop finished jobs that exceeded the retention period and compact the journal.
+   */
+  public synchronized void purge()
+  {
+    long now = System.currentTimeMillis();
+    Iterator<RenderJob> it = jobs.values().iterator();
+    boolean purged = false;
+    while(it.hasNext())
+    {
+      RenderJob job = it.next();
+      if(job.isDone() && now - job.getFinished() > retention)
+      {
+        it.remove();
+        purged = true;
+      }
+    }
+
+    if(purged && journal!=null)
+    {
+      FileUtil.close(journal);
+      compact();
+      try
+      {
+        journal = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(new File(journalDir, JOURNAL_FILE), true), ENCODING)
+        );
+      }
+      catch (IOException e)
+      {
+        log.error("Failed to reopen job journal", e);
+        journal = null;
+      }
+    }
+  }
+
+  private synchronized void record(RenderJob job)
+  {
+    if(null==journal)
+      return;
+
+    try
+    {
+      journal.write(encode(job));
+      journal.write('\n');
+      journal.flush();
+    }
+    catch (IOException e)
+    {
+      log.error("Failed to write job journal", e);
+    }
+  }
+
+  /**
+   * Replay the journal: the last record of each job wins.
+   */
+  private void recover()
+  {
+    File journalFile = new File(journalDir, JOURNAL_FILE);
+    if(!journalFile.exists())
+      return;
+
+    BufferedReader in = null;
+    try
+    {
+      in = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), ENCODING));
+      String line;
+      while((line = in.readLine()) != null)
+      {
+        RenderJob job = decode(line);
+        if(job!=null)
+          jobs.put(job.getId(), job);
+      }
+    }
+    catch (IOException e)
+    {
+      log.error("Failed to read job journal", e);
+    }
+    finally
+    {
+      FileUtil.close(in);
+    }
+
+    long now = System.currentTimeMillis();
+    List<RenderJob> pending = new ArrayList<RenderJob>();
+    Iterator<RenderJob> it = jobs.values().iterator();
+    while(it.hasNext())
+    {
+      RenderJob job = it.next();
+      if(job.isDone())
+      {
+        if(now - job.getFinished() > retention)
+          it.remove();
+      }
+      else
+      {
+        // interrupted jobs are started over
+        job.setState(RenderJob.State.QUEUED);
+        pending.add(job);
+      }
+    }
+
+    // keep the submission order
+    Collections.sort(pending, new Comparator<RenderJob>()
+    {
+      public int compare(RenderJob a, RenderJob b)
+      {
+        return a.getSubmitted() < b.getSubmitted() ? -1 : (a.getSubmitted() > b.getSubmitted() ? 1 : 0);
+      }
+    });
+    queue.addAll(pending);
+
+    compact();
+  }
+
+  /* rewrite the journal with a single record per job */
+  private void compact()
+  {
+    File journalFile = new File(journalDir, JOURNAL_FILE);
+    File tmpFile = new File(journalDir, JOURNAL_FILE + ".tmp");
+    Writer out = null;
+    try
+    {
+      out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), ENCODING));
+      for(RenderJob job : jobs.values())
+      {
+        out.write(encode(job));
+        out.write('\n');
+      }
+      out.close();
+      out = null;
+
+      journalFile.delete();
+      if(!tmpFile.renameTo(journalFile))
+        log.error("Failed to compact job journal " + journalFile);
+    }
+    catch (IOException e)
+    {
+      log.error("Failed to compact job journal", e);
+    }
+    finally
+    {
+      FileUtil.close(out);
+    }
+  }
+
+  // id|state|submitted|finished|reportName|format|documentId|parameters|error
+  private static String encode(RenderJob job) throws UnsupportedEncodingException
+  {
+    StringBuffer params = new StringBuffer();
+    for(String name : job.getParameters().keySet())
+    {
+      if(params.length()>0)
+        params.append("&");
+      params.append(URLEncoder.encode(name, ENCODING)).append("=");
+      params.append(URLEncoder.encode(job.getParameters().get(name), ENCODING));
+    }
+
+    StringBuffer sb = new StringBuffer();
+    sb.append(job.getId()).append("|");
+    sb.append(job.getState()).append("|");
+    sb.append(job.getSubmitted()).append("|");
+    sb.append(job.getFinished()).append("|");
+    sb.append(URLEncoder.encode(job.getReportName(), ENCODING)).append("|");
+    sb.append(job.getFormat()).append("|");
+    sb.append(job.getDocumentId()!=null ? job.getDocumentId() : "").append("|");
+    sb.append(URLEncoder.encode(params.toString(), ENCODING)).append("|");
+    sb.append(job.getError()!=null ? URLEncoder.encode(job.getError(), ENCODING) : "");
+    return sb.toString();
+  }
+
+  private static RenderJob decode(String line)
+  {
+    try
+    {
+      String[] fields = line.split("\\|", -1);
+      RenderJob job = new RenderJob(
+          fields[0], URLDecoder.decode(fields[4], ENCODING), RenderMetaData.Format.valueOf(fields[5])
+      );
+      job.setState(RenderJob.State.valueOf(fields[1]));
+      job.setSubmitted(Long.parseLong(fields[2]));
+      job.setFinished(Long.parseLong(fields[3]));
+      if(fields[6].length()>0)
+        job.setDocumentId(fields[6]);
+
+      String params = URLDecoder.decode(fields[7], ENCODING);
+      if(params.length()>0)
+      {
+        for(String tuple : params.split("&"))
+        {
+          String[] nameValue = tuple.split("=", -1);
+          job.getParameters().put(
+              URLDecoder.decode(nameValue[0], ENCODING), URLDecoder.decode(nameValue[1], ENCODING)
+          );
+        }
+      }
+
+      if(fields[8].length()>0)
+        job.setError(URLDecoder.decode(fields[8], ENCODING));
+
+      return job;
+    }
+    catch (Exception e)
+    {
+      // i.e. a partially written record
+      log.warn("Ignore invalid job journal record: " + line);
+      return null;
+    }
+  }
+
+  private class Worker implements Runnable
+  {
+    public void run()
+    {
+      while(running)
+      {
+        RenderJob job;
+        try
+        {
+          job = queue.take();
+        }
+        catch (InterruptedException e)
+        {
+          break;
+        }
+
+        RenderMetaData metaData = new RenderMetaData(
+            JobManager.class.getClassLoader(), job.getReportName(), job.getFormat(), null
+        );
+        metaData.getParameters().putAll(job.getParameters());
+
+        job.setState(RenderJob.State.RUNNING);
+        record(job);
+
+        try
+        {
+          birtService.render(metaData);
+          job.setDocumentId(metaData.getDocumentId());
+          job.setState(RenderJob.State.FINISHED);
+        }
+        catch (RejectedExecutionException e)
+        {
+          // render queue is full, try again later
+          job.setState(RenderJob.State.QUEUED);
+          record(job);
+          queue.add(job);
+          try
+          {
+            Thread.sleep(1000);
+          }
+          catch (InterruptedException e1)
+          {
+            break;
+          }
+          continue;
+        }
+        catch (Throwable t)
+        {
+          log.error("Render job failed: " + job, t);
+          job.setError(t.getMessage()!=null ? t.getMessage() : t.toString());
+          job.setState(RenderJob.State.FAILED);
+        }
+
+        job.setFinished(System.currentTimeMillis());
+        record(job);
+      }
+    }
+  }
+}
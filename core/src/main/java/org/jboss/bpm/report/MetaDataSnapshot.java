@@ -0,0 +1,313 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import com.google.gson.GsonBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.model.ReportParameter;
+import org.jboss.bpm.report.model.ReportReference;
+import org.jboss.bpm.report.util.FileUtil;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Keeps the extracted report meta data across restarts
+ * (<code>$OUTPUT_DIR/metadata.json</code>), so that only designs
+ * that changed need to be parsed again.<p>
+ *
+ * Entries are keyed by the content hash of a design. The modification time
+ * and size are used to skip hashing designs that obviously didn't change.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class MetaDataSnapshot
+{
+  private static final Log log = LogFactory.getLog(MetaDataSnapshot.class);
+
+  public static final String SNAPSHOT_FILE = "metadata.json";
+
+  private File snapshotFile;
+  private Snapshot snapshot = new Snapshot();
+  private boolean modified;
+
+  public MetaDataSnapshot(File snapshotFile)
+  {
+    this.snapshotFile = snapshotFile;
+  }
+
+  public synchronized void load()
+  {
+    if(!snapshotFile.exists())
+      return;
+
+    Reader in = null;
+    try
+    {
+      in = new InputStreamReader(new FileInputStream(snapshotFile), "UTF-8");
+      StringBuffer sb = new StringBuffer();
+      char[] buffer = new char[4096];
+      int n;
+      while((n = in.read(buffer)) != -1)
+        sb.append(buffer, 0, n);
+
+      Snapshot loaded = new GsonBuilder().create().fromJson(sb.toString(), Snapshot.class);
+      if(loaded!=null && loaded.version==Snapshot.VERSION && loaded.reports!=null)
+        snapshot = loaded;
+
+      log.debug("Loaded meta data of " + snapshot.reports.size() + " reports from " + snapshotFile);
+    }
+    catch (Exception e)
+    {
+      // it's a cache, start over
+      log.warn("Ignore invalid meta data snapshot " + snapshotFile, e);
+    }
+    finally
+    {
+      FileUtil.close(in);
+    }
+  }
+
+  /**
+   * The snapshot of a report, if the design didn't change since it was taken.
+   */
+  public ReportReference lookup(String reportName, File design)
+  {
+    Entry entry;
+    synchronized(this)
+    {
+      entry = snapshot.reports.get(reportName);
+    }
+
+    if(null==entry)
+      return null;
+
+    if(entry.lastModified!=design.lastModified() || entry.size!=design.length())
+    {
+      // touched, but maybe not changed
+      String hash = hash(design);
+      if(null==hash || !hash.equals(entry.hash))
+        return null;
+
+      synchronized(this)
+      {
+        entry.lastModified = design.lastModified();
+        entry.size = design.length();
+        modified = true;
+      }
+    }
+
+    try
+    {
+      return entry.toReportReference(reportName);
+    }
+    catch (RuntimeException e)
+    {
+      log.debug("Ignore invalid meta data snapshot of " + reportName, e);
+      return null;
+    }
+  }
+
+  /**
+   * The version of a design file, as recorded when it's parsed:
+   * modification time and size.
+   */
+  public static String getVersion(File design)
+  {
+    return design.lastModified() + "-" + design.length();
+  }
+
+  /**
+   * Record the meta data of a report.
+   *
+   * @param version version of the design the meta data was extracted from, see {@link #getVersion(File)}.
+   * The snapshot isn't taken if the file has changed since.
+   */
+  public void put(String reportName, File design, String version, ReportReference reportRef)
+  {
+    long lastModified = design.lastModified();
+    long size = design.length();
+    if(null==version || !version.equals(lastModified + "-" + size))
+      return;
+
+    // the file must not change while it's hashed
+    String hash = hash(design);
+    if(null==hash || !version.equals(getVersion(design)))
+      return;
+
+    Entry entry = Entry.create(reportRef);
+    entry.lastModified = lastModified;
+    entry.size = size;
+    entry.hash = hash;
+
+    synchronized(this)
+    {
+      snapshot.reports.put(reportName, entry);
+      modified = true;
+    }
+  }
+
+  public synchronized void remove(String reportName)
+  {
+    if(snapshot.reports.remove(reportName)!=null)
+      modified = true;
+  }
+
+  /**
+   * Drop the snapshots of designs that no longer exist.
+   */
+  public synchronized void retain(Collection<String> reportNames)
+  {
+    if(snapshot.reports.keySet().retainAll(reportNames))
+      modified = true;
+  }
+
+  /**
+   * Write the snapshot, if it changed since it was last written.
+   */
+  public synchronized void save()
+  {
+    if(!modified)
+      return;
+
+    File tmpFile = new File(snapshotFile.getPath() + "-" + UUID.randomUUID() + ".tmp");
+    Writer out = null;
+    try
+    {
+      out = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+      out.write(new GsonBuilder().create().toJson(snapshot));
+      out.close();
+      out = null;
+
+      snapshotFile.delete();
+      if(!tmpFile.renameTo(snapshotFile))
+        log.warn("Failed to write meta data snapshot " + snapshotFile);
+      else
+        modified = false;
+    }
+    catch (IOException e)
+    {
+      log.warn("Failed to write meta data snapshot", e);
+    }
+    finally
+    {
+      FileUtil.close(out);
+    }
+  }
+
+  private static String hash(File file)
+  {
+    InputStream in = null;
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      in = new FileInputStream(file);
+      byte[] buffer = new byte[8192];
+      int n;
+      while((n = in.read(buffer)) != -1)
+        digest.update(buffer, 0, n);
+
+      StringBuffer sb = new StringBuffer();
+      for(byte b : digest.digest())
+        sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+      return sb.toString();
+    }
+    catch (IOException e)
+    {
+      log.debug("Failed to read " + file, e);
+      return null;
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    finally
+    {
+      FileUtil.close(in);
+    }
+  }
+
+  /* the persistent form, ReportReference can't be instantiated by gson */
+  private static class Snapshot
+  {
+    static final int VERSION = 1;
+
+    int version = VERSION;
+    Map<String, Entry> reports = new HashMap<String, Entry>();
+  }
+
+  private static class Entry
+  {
+    long lastModified;
+    long size;
+    String hash;
+    String title;
+    String description;
+    List<Parameter> parameters = new ArrayList<Parameter>();
+
+    static Entry create(ReportReference reportRef)
+    {
+      Entry entry = new Entry();
+      entry.title = reportRef.getTitle();
+      entry.description = reportRef.getDescription();
+      for(ReportParameter param : reportRef.getParameterMetaData())
+      {
+        Parameter p = new Parameter();
+        p.name = param.getName();
+        p.type = param.getType().name();
+        p.dataType = param.getDataType().name();
+        p.helptext = param.getHelptext();
+        p.promptText = param.getPromptText();
+        entry.parameters.add(p);
+      }
+      return entry;
+    }
+
+    ReportReference toReportReference(String reportName)
+    {
+      ReportReference reportRef = new ReportReference(reportName);
+      reportRef.setTitle(title);
+      reportRef.setDescription(description);
+      for(Parameter p : parameters)
+      {
+        ReportParameter param = new ReportParameter(p.name, ReportParameter.Type.valueOf(p.type));
+        param.setDataType(ReportParameter.DataType.valueOf(p.dataType));
+        param.setHelptext(p.helptext);
+        param.setPromptText(p.promptText);
+        reportRef.getParameterMetaData().add(param);
+      }
+      return reportRef;
+    }
+  }
+
+  private static class Parameter
+  {
+    String name;
+    String type;
+    String dataType;
+    String helptext;
+    String promptText;
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.util.FileUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Manages the layout of the output directory and keeps it within a disk quota.<p>
+ *
+ * Workspaces and images are spread across subdirectories by the first two
+ * characters of their id, so that no single directory grows too large:
+ * <ul>
+ * <li><code>work/ab/ab12.../</code> a workspace</li>
+ * <li><code>image/ab/ab12.../</code> images referenced by a document or workspace (the owner)</li>
+ * </ul>
+ *
+ * Documents, workspaces and images that are used by a render in progress are leased
+ * and never removed. Images are removed along with their owner.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class OutputStore
+{
+  private static final Log log = LogFactory.getLog(OutputStore.class);
+
+  /* files younger than this may still be written to by a render */
+  static final long GRACE_PERIOD = 60 * 1000L;
+
+  private IntegrationConfig iConfig;
+  private DocumentCache documentCache;
+  private boolean shared;
+
+  private Map<String, Integer> leases = new HashMap<String, Integer>();
+
+  public OutputStore(IntegrationConfig iConfig)
+  {
+    this.iConfig = iConfig;
+  }
+
+  public void setDocumentCache(DocumentCache documentCache)
+  {
+    this.documentCache = documentCache;
+  }
+
+  /**
+   * The directory is shared with other nodes. Their leases are not known,
+   * so workspaces are only removed when they expire.
+   */
+  public void setShared(boolean shared)
+  {
+    this.shared = shared;
+  }
+
+  /**
+   * The subdirectory for an id
+   */
+  public static String getShard(String id)
+  {
+    return id.length() > 2 ? id.substring(0, 2) : "00";
+  }
+
+  /**
+   * Create a private output directory for a single request.
+   * The workspace is leased and needs to be released by the caller.
+   *
+   * @return the workspace id
+   */
+  public String createWorkspace()
+  {
+    String id = UUID.randomUUID().toString();
+    lease(id);
+
+    File dir = getWorkspace(id);
+    if(!dir.mkdirs())
+    {
+      release(id);
+      throw new IllegalStateException("Failed to create workspace " + dir);
+    }
+    return id;
+  }
+
+  /**
+   * Remove a workspace and it's images right away, i.e. the partial output of a cancelled render.
+   * Releases the lease taken by {@link #createWorkspace()}.
+   */
+  public void discard(String id)
+  {
+    FileUtil.delete(getWorkspace(id));
+    FileUtil.delete(getImageDirectory(id));
+    release(id);
+  }
+
+  public File getWorkspace(String id)
+  {
+    return new File(new File(iConfig.getWorkspaceDirectory(), getShard(id)), id);
+  }
+
+  /**
+   * Directory for images referenced from the HTML output of a document or workspace.
+   */
+  public File getImageDirectory(String ownerId)
+  {
+    return new File(new File(iConfig.getImageDirectory(), getShard(ownerId)), ownerId);
+  }
+
+  /**
+   * Image URL that maps to {@link #getImageDirectory(String)}
+   */
+  public static String getImageBaseUrl(String imageBaseUrl, String ownerId)
+  {
+    return imageBaseUrl + "/" + getShard(ownerId) + "/" + ownerId;
+  }
+
+  /**
+   * Path of a file relative to the output directory
+   */
+  public String relativize(File file)
+  {
+    String outputDir = new File(iConfig.getOutputDir()).getAbsolutePath();
+    String path = file.getAbsolutePath();
+    if(!path.startsWith(outputDir))
+      throw new IllegalArgumentException(file + " is not part of the output directory");
+
+    return path.substring(outputDir.length() + 1).replace(File.separatorChar, '/');
+  }
+
+  public synchronized void lease(String id)
+  {
+    Integer count = leases.get(id);
+    leases.put(id, count==null ? 1 : count + 1);
+  }
+
+  public synchronized void release(String id)
+  {
+    Integer count = leases.get(id);
+    if(count==null || count <= 1)
+      leases.remove(id);
+    else
+      leases.put(id, count - 1);
+  }
+
+  public synchronized boolean isLeased(String id)
+  {
+    return leases.containsKey(id);
+  }
+
+  /**
+   * Remove expired workspaces and orphaned images.
+   * If the output directory exceeds the quota, the least recently used
+   * workspaces and documents are evicted.
+   */
+  public void cleanup()
+  {
+    long now = System.currentTimeMillis();
+
+    for(File workspace : listWorkspaces())
+    {
+      if(now - workspace.lastModified() > iConfig.getWorkspaceMaxAge() && !isLeased(workspace.getName()))
+      {
+        log.debug("Remove workspace " + workspace);
+        FileUtil.delete(workspace);
+      }
+    }
+
+    removeOrphanedImages(now);
+
+    long excess = FileUtil.size(new File(iConfig.getOutputDir())) - iConfig.getOutputQuota();
+    if(excess > 0)
+    {
+      log.info("Output directory exceeds quota by " + excess + " bytes");
+
+      long freed = removeWorkspaces(excess, now);
+      if(freed < excess && documentCache!=null)
+        documentCache.shrink(excess - freed);
+
+      removeOrphanedImages(now);
+    }
+  }
+
+  /* oldest first */
+  private long removeWorkspaces(long bytes, long now)
+  {
+    List<File> workspaces = listWorkspaces();
+    Collections.sort(workspaces, new Comparator<File>()
+    {
+      public int compare(File a, File b)
+      {
+        long diff = a.lastModified() - b.lastModified();
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+      }
+    });
+
+    long freed = 0;
+    for(File workspace : workspaces)
+    {
+      if(freed >= bytes)
+        break;
+
+      String id = workspace.getName();
+      long grace = shared ? iConfig.getWorkspaceMaxAge() : GRACE_PERIOD;
+      if(now - workspace.lastModified() < grace || isLeased(id))
+        continue;
+
+      File images = getImageDirectory(id);
+      freed += FileUtil.size(workspace) + FileUtil.size(images);
+      FileUtil.delete(workspace);
+      FileUtil.delete(images);
+    }
+    return freed;
+  }
+
+  private void removeOrphanedImages(long now)
+  {
+    File[] files = new File(iConfig.getImageDirectory()).listFiles();
+    if(null==files)
+      return;
+
+    for(File f : files)
+    {
+      if(f.isDirectory() && f.getName().length()==2)
+      {
+        for(File images : f.listFiles())
+        {
+          String id = images.getName();
+          if(now - images.lastModified() < GRACE_PERIOD || isLeased(id))
+            continue;
+
+          boolean orphaned = !getWorkspace(id).exists()
+              && (null==documentCache || !documentCache.contains(id));
+          if(orphaned)
+            FileUtil.delete(images);
+        }
+      }
+      else if(now - f.lastModified() > iConfig.getWorkspaceMaxAge())
+      {
+        // images of previous versions, that don't have an owner
+        FileUtil.delete(f);
+      }
+    }
+  }
+
+  private List<File> listWorkspaces()
+  {
+    List<File> workspaces = new ArrayList<File>();
+    File[] shards = new File(iConfig.getWorkspaceDirectory()).listFiles();
+    if(shards!=null)
+    {
+      for(File shard : shards)
+      {
+        if(shard.getName().length()!=2)
+        {
+          // workspaces of previous versions weren't sharded
+          workspaces.add(shard);
+          continue;
+        }
+
+        File[] children = shard.listFiles();
+        if(children!=null)
+        {
+          for(File child : children)
+            workspaces.add(child);
+        }
+      }
+    }
+    return workspaces;
+  }
+}
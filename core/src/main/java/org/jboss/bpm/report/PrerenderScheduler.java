@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.util.FileUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders selected reports ahead of time, so that interactive requests
+ * are served from the document cache.<p>
+ *
+ * Only the run phase is done ahead of time. Viewing a prerendered document
+ * still renders it into the requested format.<p>
+ *
+ * Schedules are read from <code>$WORK_DIR/prerender.properties</code>:
+ * <pre>
+ * # render the sales report every 15 minutes
+ * sales.report=sales.rptdesign
+ * sales.interval=900
+ * sales.param.region=EMEA
+ * </pre>
+ *
+ * Parameters that are not given use the report defaults.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class PrerenderScheduler
+{
+  private static final Log log = LogFactory.getLog(PrerenderScheduler.class);
+
+  public static final String CONFIG_FILE = "prerender.properties";
+
+  /* spread the initial renders */
+  private static final long STAGGER_SECONDS = 5;
+
+  private BirtService birtService;
+  private File configFile;
+  private ScheduledExecutorService executor;
+
+  public PrerenderScheduler(BirtService birtService, File configFile)
+  {
+    this.birtService = birtService;
+    this.configFile = configFile;
+  }
+
+  public void start()
+  {
+    if(!configFile.exists())
+    {
+      log.debug("No prerender schedules: " + configFile);
+      return;
+    }
+
+    List<Schedule> schedules = load();
+    if(schedules.isEmpty())
+      return;
+
+    executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable r)
+          {
+            Thread t = new Thread(r, "BirtService-Prerender");
+            t.setDaemon(true);
+            return t;
+          }
+        }
+    );
+
+    long initialDelay = 0;
+    for(final Schedule schedule : schedules)
+    {
+      executor.scheduleWithFixedDelay(
+          new Runnable()
+          {
+            public void run()
+            {
+              prerender(schedule);
+            }
+          }, initialDelay, schedule.interval, TimeUnit.SECONDS
+      );
+      initialDelay += STAGGER_SECONDS;
+      log.info("Prerender " + schedule.reportName + " every " + schedule.interval + " seconds");
+    }
+  }
+
+  public void stop()
+  {
+    if(executor!=null)
+      executor.shutdownNow();
+  }
+
+  private void prerender(Schedule schedule)
+  {
+    try
+    {
+      RenderMetaData metaData = new RenderMetaData(
+          PrerenderScheduler.class.getClassLoader(), schedule.reportName, RenderMetaData.Format.HTML, null
+      );
+      metaData.getParameters().putAll(schedule.parameters);
+      metaData.setPriority(RenderMetaData.Priority.BACKGROUND);
+
+      long start = System.currentTimeMillis();
+      birtService.refresh(metaData);
+      log.debug("Prerendered " + schedule.name + " in " + (System.currentTimeMillis()-start) + " ms");
+    }
+    catch (Throwable t)
+    {
+      // keep the schedule running
+      log.error("Failed to prerender " + schedule.name, t);
+    }
+  }
+
+  private List<Schedule> load()
+  {
+    Properties props = new Properties();
+    FileInputStream in = null;
+    try
+    {
+      in = new FileInputStream(configFile);
+      props.load(in);
+    }
+    catch (IOException e)
+    {
+      log.error("Failed to read " + configFile, e);
+      return Collections.emptyList();
+    }
+    finally
+    {
+      FileUtil.close(in);
+    }
+
+    List<Schedule> schedules = new ArrayList<Schedule>();
+    for(Object k : new TreeSet<Object>(props.keySet()))
+    {
+      String key = (String)k;
+      if(!key.endsWith(".report"))
+        continue;
+
+      String name = key.substring(0, key.length() - ".report".length());
+      Schedule schedule = new Schedule();
+      schedule.name = name;
+      schedule.reportName = props.getProperty(key).trim();
+
+      try
+      {
+        schedule.interval = Long.parseLong(props.getProperty(name + ".interval", "").trim());
+      }
+      catch (NumberFormatException e)
+      {
+        log.warn("Ignore prerender schedule " + name + ": invalid interval");
+        continue;
+      }
+
+      if(schedule.interval <= 0)
+      {
+        log.warn("Ignore prerender schedule " + name + ": invalid interval");
+        continue;
+      }
+
+      String paramPrefix = name + ".param.";
+      for(Object p : props.keySet())
+      {
+        String paramKey = (String)p;
+        if(paramKey.startsWith(paramPrefix))
+          schedule.parameters.put(paramKey.substring(paramPrefix.length()), props.getProperty(paramKey));
+      }
+
+      schedules.add(schedule);
+    }
+
+    return schedules;
+  }
+
+  private static class Schedule
+  {
+    String name;
+    String reportName;
+    long interval;
+    Map<String,String> parameters = new HashMap<String,String>();
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.birt.report.engine.api.IEngineTask;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancels a render in progress, when it runs out of time or
+ * the client that asked for it has gone away.<p>
+ *
+ * A control is bound to the render thread for the duration of a request.
+ * Whatever currently does the work (an engine task or a worker process)
+ * is attached to it and told to stop when the control is cancelled.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class RenderControl
+{
+  private static final Log log = LogFactory.getLog(RenderControl.class);
+
+  private static final ThreadLocal<RenderControl> current = new ThreadLocal<RenderControl>();
+
+  /**
+   * Stops the work attached to a control.
+   */
+  public interface Canceller
+  {
+    void cancel(String reason);
+  }
+
+  private String description;
+  private Canceller canceller;
+  private String reason;
+
+  public RenderControl(String description)
+  {
+    this.description = description;
+  }
+
+  /**
+   * The control of the render running on this thread, or null.
+   */
+  public static RenderControl current()
+  {
+    return current.get();
+  }
+
+  static void bind(RenderControl control)
+  {
+    current.set(control);
+  }
+
+  static void unbind()
+  {
+    current.remove();
+  }
+
+  /**
+   * Attach the engine task that is about to run.
+   * It's cancelled right away, if the control already has been.
+   */
+  public void attach(final IEngineTask task)
+  {
+    attach(
+        new Canceller()
+        {
+          public void cancel(String reason)
+          {
+            task.cancel(reason);
+          }
+        }
+    );
+  }
+
+  public synchronized void attach(Canceller canceller)
+  {
+    this.canceller = canceller;
+    if(reason!=null)
+      canceller.cancel(reason);
+  }
+
+  public synchronized void detach()
+  {
+    this.canceller = null;
+  }
+
+  /**
+   * Stop the render. Only the first reason is kept.
+   */
+  public void cancel(String reason)
+  {
+    Canceller target;
+    synchronized(this)
+    {
+      if(this.reason!=null)
+        return;
+      this.reason = reason;
+      target = canceller;
+    }
+
+    log.info("Cancel " + description + ": " + reason);
+    if(target!=null)
+    {
+      try
+      {
+        target.cancel(reason);
+      }
+      catch (RuntimeException e)
+      {
+        log.warn("Failed to cancel " + description, e);
+      }
+    }
+  }
+
+  public synchronized boolean isCancelled()
+  {
+    return reason!=null;
+  }
+
+  /**
+   * Fail fast, instead of handing on the (partial) result of a cancelled render.
+   *
+   * @throws CancellationException if the control has been cancelled
+   */
+  public synchronized void check()
+  {
+    if(reason!=null)
+      throw new CancellationException(description + " cancelled: " + reason);
+  }
+
+  /**
+   * Wrap the output stream of a client, so that the render is cancelled
+   * as soon as a write fails, i.e. because the client disconnected.
+   */
+  public OutputStream guard(OutputStream out)
+  {
+    return new FilterOutputStream(out)
+    {
+      public void write(int b) throws IOException
+      {
+        try
+        {
+          out.write(b);
+        }
+        catch (IOException e)
+        {
+          throw disconnected(e);
+        }
+      }
+
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+        try
+        {
+          out.write(b, off, len);
+        }
+        catch (IOException e)
+        {
+          throw disconnected(e);
+        }
+      }
+
+      public void flush() throws IOException
+      {
+        try
+        {
+          out.flush();
+        }
+        catch (IOException e)
+        {
+          throw disconnected(e);
+        }
+      }
+    };
+  }
+
+  private IOException disconnected(IOException e)
+  {
+    cancel("client disconnected (" + e.getMessage() + ")");
+    return e;
+  }
+
+  public String toString()
+  {
+    return description;
+  }
+}
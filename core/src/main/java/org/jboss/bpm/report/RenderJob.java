@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An asynchronous render request.
+ *
+ * @see org.jboss.bpm.report.JobManager
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class RenderJob
+{
+  public enum State {QUEUED, RUNNING, FINISHED, FAILED}
+
+  private String id;
+  private String reportName;
+  private RenderMetaData.Format format;
+  private Map<String,String> parameters = new HashMap<String,String>();
+
+  private volatile State state = State.QUEUED;
+  private long submitted;
+  private volatile long finished;
+  private volatile String documentId;
+  private volatile String error;
+
+  public RenderJob(String id, String reportName, RenderMetaData.Format format)
+  {
+    this.id = id;
+    this.reportName = reportName;
+    this.format = format;
+  }
+
+  public String getId()
+  {
+    return id;
+  }
+
+  public String getReportName()
+  {
+    return reportName;
+  }
+
+  public RenderMetaData.Format getFormat()
+  {
+    return format;
+  }
+
+  public Map<String, String> getParameters()
+  {
+    return parameters;
+  }
+
+  public State getState()
+  {
+    return state;
+  }
+
+  public void setState(State state)
+  {
+    this.state = state;
+  }
+
+  public long getSubmitted()
+  {
+    return submitted;
+  }
+
+  public void setSubmitted(long submitted)
+  {
+    this.submitted = submitted;
+  }
+
+  public long getFinished()
+  {
+    return finished;
+  }
+
+  public void setFinished(long finished)
+  {
+    this.finished = finished;
+  }
+
+  /**
+   * The report document, once the job has finished.
+   */
+  public String getDocumentId()
+  {
+    return documentId;
+  }
+
+  public void setDocumentId(String documentId)
+  {
+    this.documentId = documentId;
+  }
+
+  public String getError()
+  {
+    return error;
+  }
+
+  public void setError(String error)
+  {
+    this.error = error;
+  }
+
+  public boolean isDone()
+  {
+    return state==State.FINISHED || state==State.FAILED;
+  }
+
+  public String toString()
+  {
+    return "RenderJob {id="+id+", reportName="+reportName+", state="+state+"}";
+  }
+}
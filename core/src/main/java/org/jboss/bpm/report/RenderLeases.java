@@ -0,0 +1,308 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.util.FileUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinates renders between nodes that share an output directory,
+ * so that each document is rendered by one node only.<p>
+ *
+ * A node claims a render key by creating a lease file
+ * (<code>$OUTPUT_DIR/leases/&lt;key&gt;.lease</code>) and removes it when the render is done.
+ * Other nodes wait for the lease to go away and pick up the result.
+ * The owner touches it's lease files regularly. A lease that hasn't been
+ * touched within the timeout belongs to a node that died and is taken over.<p>
+ *
+ * Each lease carries an owner token that is unique per acquisition.
+ * Nodes only renew and remove leases that carry their own token,
+ * so that a lease taken over from a slow node isn't removed by it later on.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class RenderLeases
+{
+  private static final Log log = LogFactory.getLog(RenderLeases.class);
+
+  private static final String SUFFIX = ".lease";
+  private static final long POLL_INTERVAL = 250;
+
+  private File leaseDir;
+  private String nodeId;
+  private long timeout;
+
+  /* keys leased by this node -> owner token */
+  private Map<String, String> held = new ConcurrentHashMap<String, String>();
+  private ScheduledExecutorService heartbeat;
+
+  public RenderLeases(File leaseDir, String nodeId, long timeout)
+  {
+    this.leaseDir = leaseDir;
+    this.nodeId = nodeId;
+    this.timeout = timeout;
+  }
+
+  public void start()
+  {
+    leaseDir.mkdirs();
+
+    heartbeat = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable r)
+          {
+            Thread t = new Thread(r, "BirtService-Lease");
+            t.setDaemon(true);
+            return t;
+          }
+        }
+    );
+
+    long interval = Math.max(1, timeout / 3);
+    heartbeat.scheduleWithFixedDelay(
+        new Runnable()
+        {
+          public void run()
+          {
+            renew();
+          }
+        }, interval, interval, TimeUnit.MILLISECONDS
+    );
+
+    log.info("Coordinate renders with other nodes as " + nodeId);
+  }
+
+  public void stop()
+  {
+    if(heartbeat!=null)
+      heartbeat.shutdownNow();
+
+    for(String key : held.keySet())
+      release(key);
+  }
+
+  /**
+   * Claim a render key.
+   *
+   * @return false if another node holds the lease
+   */
+  public boolean tryAcquire(String key)
+  {
+    File lease = getLeaseFile(key);
+    String token = nodeId + ":" + UUID.randomUUID();
+    boolean created = false;
+    try
+    {
+      if(!lease.createNewFile())
+      {
+        if(!isExpired(lease))
+          return false;
+
+        // the owner died. Only one node succeeds to move the lease away.
+        String owner = read(lease);
+        File expired = new File(lease.getPath() + "." + UUID.randomUUID() + ".expired");
+        if(lease.renameTo(expired))
+        {
+          // another node may have taken over and created a fresh lease in the meantime
+          if(isExpired(expired) && owner!=null && owner.equals(read(expired)))
+          {
+            log.warn("Took over expired lease " + lease);
+            expired.delete();
+          }
+          else
+          {
+            restore(lease, expired);
+          }
+        }
+
+        if(!lease.createNewFile())
+          return false;
+      }
+      created = true;
+
+      // the token is in place before the lease counts as held
+      write(lease, token);
+    }
+    catch (IOException e)
+    {
+      if(created)
+        lease.delete();
+      throw new RuntimeException("Failed to create lease " + lease, e);
+    }
+
+    held.put(key, token);
+    return true;
+  }
+
+  /**
+   * Remove a lease, unless it has been taken over by another node.
+   */
+  public void release(String key)
+  {
+    String token = held.remove(key);
+    File lease = getLeaseFile(key);
+    if(null==token)
+      return;
+
+    if(token.equals(read(lease)))
+      lease.delete();
+    else
+      log.warn("Lease " + key + " has been taken over by another node, leave it in place");
+  }
+
+  /**
+   * Wait until the lease on a key is released or expired.
+   *
+   * @param control the render waiting for the lease, may be null
+   * @param giveUp time (in ms) to stop waiting at, zero to wait until the lease expires
+   * @throws CancellationException if the control is cancelled or the time is up
+   */
+  public void await(String key, RenderControl control, long giveUp) throws InterruptedException
+  {
+    File lease = getLeaseFile(key);
+    while(lease.exists() && !isExpired(lease))
+    {
+      if(control!=null)
+        control.check();
+
+      long remaining = giveUp > 0 ? giveUp - System.currentTimeMillis() : POLL_INTERVAL;
+      if(remaining <= 0)
+        throw new CancellationException("Gave up waiting for another node to render " + key);
+
+      Thread.sleep(Math.min(remaining, POLL_INTERVAL));
+    }
+  }
+
+  private void renew()
+  {
+    long now = System.currentTimeMillis();
+    for(String key : held.keySet())
+    {
+      String token = held.get(key);
+      if(null==token)
+        continue; // released meanwhile
+
+      File lease = getLeaseFile(key);
+      if(!token.equals(read(lease)))
+      {
+        // don't keep someone else's lease alive
+        log.warn("Lease " + key + " has been taken over by another node");
+        held.remove(key);
+      }
+      else if(!lease.setLastModified(now))
+      {
+        log.warn("Failed to renew lease " + key + ", it may be taken over by another node");
+      }
+    }
+  }
+
+  private boolean isExpired(File lease)
+  {
+    long lastModified = lease.lastModified();
+    return lastModified > 0 && System.currentTimeMillis() - lastModified > timeout;
+  }
+
+  /**
+   * Put back a lease that was moved away although it wasn't expired,
+   * unless a new one has been created since.
+   */
+  private void restore(File lease, File moved) throws IOException
+  {
+    String owner = read(moved);
+    long lastModified = moved.lastModified();
+    if(owner!=null && lease.createNewFile())
+    {
+      write(lease, owner);
+      lease.setLastModified(lastModified);
+    }
+    moved.delete();
+  }
+
+  private void write(File lease, String token) throws IOException
+  {
+    OutputStream out = null;
+    try
+    {
+      out = new FileOutputStream(lease);
+      out.write(token.getBytes("UTF-8"));
+    }
+    finally
+    {
+      FileUtil.close(out);
+    }
+  }
+
+  /**
+   * @return the owner token, or null if there is no lease
+   */
+  private String read(File lease)
+  {
+    InputStream in = null;
+    try
+    {
+      in = new FileInputStream(lease);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[128];
+      int n;
+      while((n = in.read(buffer)) != -1)
+        bytes.write(buffer, 0, n);
+      return bytes.toString("UTF-8");
+    }
+    catch (FileNotFoundException e)
+    {
+      return null;
+    }
+    catch (IOException e)
+    {
+      log.debug("Failed to read lease owner " + lease, e);
+      return null;
+    }
+    finally
+    {
+      FileUtil.close(in);
+    }
+  }
+
+  private File getLeaseFile(String key)
+  {
+    return new File(leaseDir, key + SUFFIX);
+  }
+}
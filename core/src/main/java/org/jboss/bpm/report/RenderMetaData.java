@@ -21,6 +21,8 @@
  */
 package org.jboss.bpm.report;
 
+import org.jboss.bpm.report.metrics.RenderMetrics;
+
 import java.util.Map;
 import java.util.HashMap;
 
@@ -33,11 +35,20 @@ public class RenderMetaData
 {
   public enum Format {HTML, PDF};
 
+  /* in order of precedence */
+  public enum Priority {INTERACTIVE, NORMAL, BACKGROUND};
+
   private ClassLoader classloader;
   private String reportName;
   private Format format;
   private Map<String,String> parameters = new HashMap<String,String>();
   private String imageBaseUrl;
+  private String documentId;
+  private Priority priority = Priority.NORMAL;
+  private long deadline;
+  private long timeout;
+  private String outputLease;
+  private RenderMetrics.Timer serveTimer;
 
   public RenderMetaData()
   {
@@ -91,6 +102,88 @@ public class RenderMetaData
     this.format = format;
   }
 
+  /**
+   * Identifies the report document to be viewed.
+   * Populated by {@link org.jboss.bpm.report.BirtService#render(RenderMetaData)}.
+   */
+  public String getDocumentId()
+  {
+    return documentId;
+  }
+
+  public void setDocumentId(String documentId)
+  {
+    this.documentId = documentId;
+  }
+
+  /**
+   * Interactive requests are served before jobs and batches.
+   */
+  public Priority getPriority()
+  {
+    return priority;
+  }
+
+  public void setPriority(Priority priority)
+  {
+    this.priority = priority;
+  }
+
+  /**
+   * Time (in ms since the epoch) after which the request isn't worth serving anymore.
+   * Zero means no deadline.
+   */
+  public long getDeadline()
+  {
+    return deadline;
+  }
+
+  public void setDeadline(long deadline)
+  {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Time (in ms) the render may take before it's cancelled. It can't exceed
+   * the budget of the report. Zero means the report budget applies.
+   * A render shared with other requests is only cancelled once all of them timed out.
+   */
+  public long getTimeout()
+  {
+    return timeout;
+  }
+
+  public void setTimeout(long timeout)
+  {
+    this.timeout = timeout;
+  }
+
+  /**
+   * The workspace or document that holds the output file returned by a view.
+   * It stays leased until it's been served, see {@link org.jboss.bpm.report.BirtService#releaseOutput(RenderMetaData)}.
+   */
+  public String getOutputLease()
+  {
+    return outputLease;
+  }
+
+  public void setOutputLease(String outputLease)
+  {
+    this.outputLease = outputLease;
+  }
+
+  /**
+   * Times the request until the leased output has been written to the client.
+   */
+  public RenderMetrics.Timer getServeTimer()
+  {
+    return serveTimer;
+  }
+
+  public void setServeTimer(RenderMetrics.Timer serveTimer)
+  {
+    this.serveTimer = serveTimer;
+  }
 
   public String toString()
   {
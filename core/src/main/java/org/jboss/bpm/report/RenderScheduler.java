@@ -0,0 +1,394 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Schedules work on the render threads by priority.<p>
+ *
+ * <ul>
+ * <li>Each {@link RenderMetaData.Priority} has it's own lane. A thread always takes
+ * work from the most important lane that has any.
+ * <li>Within a lane, reports take turns, so that a burst of one report
+ * doesn't starve the others.
+ * <li>Background work never occupies all threads, so there is always
+ * one left for interactive requests.
+ * <li>Work that passed it's deadline while queued is dropped, before it reaches the engine.
+ * <li>When the queue is full, queued work of a lower priority is dropped to make room.
+ * </ul>
+ * Dropped work fails with a {@link RejectedExecutionException}.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class RenderScheduler
+{
+  private static final Log log = LogFactory.getLog(RenderScheduler.class);
+
+  private final Object lock = new Object();
+
+  private int queueSize;
+  private int backgroundLimit;
+  private boolean running = true;
+
+  private Map<RenderMetaData.Priority, Lane> lanes =
+      new EnumMap<RenderMetaData.Priority, Lane>(RenderMetaData.Priority.class);
+  private int queued;
+  private int backgroundActive;
+
+  private List<Thread> threads = new ArrayList<Thread>();
+
+  /**
+   * @param threadCount number of render threads, at least two,
+   * because one is always kept free of background work
+   */
+  public RenderScheduler(int threadCount, int queueSize, ThreadFactory threadFactory)
+  {
+    if(threadCount < 2)
+    {
+      log.info("Use 2 render threads instead of " + threadCount + ", one is reserved for interactive requests");
+      threadCount = 2;
+    }
+
+    this.queueSize = queueSize;
+    this.backgroundLimit = threadCount - 1;
+
+    for(RenderMetaData.Priority priority : RenderMetaData.Priority.values())
+      lanes.put(priority, new Lane());
+
+    for(int i=0; i<threadCount; i++)
+    {
+      Thread t = threadFactory.newThread(
+          new Runnable()
+          {
+            public void run()
+            {
+              work();
+            }
+          }
+      );
+      threads.add(t);
+      t.start();
+    }
+  }
+
+  /**
+   * Queue work for a render thread.
+   *
+   * @param deadline drop the work if it didn't start before, zero means no deadline
+   * @throws RejectedExecutionException if the queue is full of work that is at least as important
+   */
+  public <T> Future<T> submit(Callable<T> work, RenderMetaData.Priority priority, long deadline, String reportName)
+  {
+    return submit(new Task<T>(work, priority, deadline, reportName, true));
+  }
+
+  private <T> Future<T> submit(Task<T> task)
+  {
+    RenderMetaData.Priority priority = task.priority;
+
+    synchronized(lock)
+    {
+      if(!running)
+        throw new RejectedExecutionException("Render scheduler has been shut down");
+
+      if(queued >= queueSize && !dropLessImportantThan(priority))
+        throw new RejectedExecutionException("Too many pending reports, please try again later");
+
+      lanes.get(priority).add(task);
+      queued++;
+      lock.notifyAll();
+    }
+    return task;
+  }
+
+  /**
+   * Move queued work to a more important lane, i.e. when a more important
+   * request waits for it as well. Work that already started isn't affected.
+   *
+   * @param future returned by {@link #submit}
+   * @return true if the work has been moved
+   */
+  public boolean promote(Future<?> future, RenderMetaData.Priority priority)
+  {
+    if(!(future instanceof Task))
+      return false;
+
+    Task task = (Task)future;
+    synchronized(lock)
+    {
+      if(priority.ordinal() >= task.priority.ordinal())
+        return false;
+      if(!lanes.get(task.priority).remove(task))
+        return false; // running or done
+
+      log.debug("Promote render of " + task.reportName + " from " + task.priority + " to " + priority);
+      task.priority = priority;
+      lanes.get(priority).add(task);
+      lock.notifyAll();
+    }
+    return true;
+  }
+
+  /**
+   * An executor view that submits at a fixed priority, i.e. for a {@link CompletionService}.
+   * Work submitted through it is not dropped once it's queued, because the caller
+   * can't be told.
+   */
+  public Executor executor(final RenderMetaData.Priority priority, final String reportName)
+  {
+    return new Executor()
+    {
+      public void execute(final Runnable command)
+      {
+        submit(new Task<Object>(Executors.callable(command), priority, 0, reportName, false));
+      }
+    };
+  }
+
+  public int getQueueSize()
+  {
+    synchronized(lock)
+    {
+      return queued;
+    }
+  }
+
+  public void shutdownNow()
+  {
+    synchronized(lock)
+    {
+      running = false;
+      for(Lane lane : lanes.values())
+      {
+        Task task;
+        while((task = lane.poll()) != null)
+          task.cancel(false);
+      }
+      queued = 0;
+      lock.notifyAll();
+    }
+
+    for(Thread t : threads)
+      t.interrupt();
+  }
+
+  private void work()
+  {
+    while(true)
+    {
+      Task task = null;
+      synchronized(lock)
+      {
+        while(running && (task = next()) == null)
+        {
+          try
+          {
+            lock.wait();
+          }
+          catch (InterruptedException e)
+          {
+            // check if we're still running
+          }
+        }
+
+        if(!running)
+          return;
+
+        if(task.priority==RenderMetaData.Priority.BACKGROUND)
+          backgroundActive++;
+      }
+
+      try
+      {
+        task.run();
+      }
+      finally
+      {
+        // clear the interrupt of a cancelled task
+        Thread.interrupted();
+
+        if(task.priority==RenderMetaData.Priority.BACKGROUND)
+        {
+          synchronized(lock)
+          {
+            backgroundActive--;
+            lock.notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+  /* the next task to run, skipping expired ones */
+  private Task next()
+  {
+    long now = System.currentTimeMillis();
+    for(RenderMetaData.Priority priority : RenderMetaData.Priority.values())
+    {
+      if(priority==RenderMetaData.Priority.BACKGROUND && backgroundActive >= backgroundLimit)
+        continue;
+
+      Lane lane = lanes.get(priority);
+      Task task;
+      while((task = lane.poll()) != null)
+      {
+        queued--;
+        if(task.isExpired(now))
+        {
+          log.debug("Drop expired render of " + task.reportName);
+          task.reject("Deadline exceeded before the report was rendered");
+          continue;
+        }
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /* make room for more important work */
+  private boolean dropLessImportantThan(RenderMetaData.Priority priority)
+  {
+    RenderMetaData.Priority[] priorities = RenderMetaData.Priority.values();
+    for(int i=priorities.length-1; i>priority.ordinal(); i--)
+    {
+      Task victim = lanes.get(priorities[i]).removeNewest();
+      if(victim!=null)
+      {
+        queued--;
+        log.debug("Drop " + victim.priority + " render of " + victim.reportName + " in favour of " + priority);
+        victim.reject("Dropped in favour of more important reports, please try again later");
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /* per report FIFO queues, served round robin */
+  private static class Lane
+  {
+    private LinkedHashMap<String, LinkedList<Task>> reports = new LinkedHashMap<String, LinkedList<Task>>();
+
+    void add(Task task)
+    {
+      LinkedList<Task> queue = reports.get(task.reportName);
+      if(null==queue)
+      {
+        queue = new LinkedList<Task>();
+        reports.put(task.reportName, queue);
+      }
+      queue.add(task);
+    }
+
+    Task poll()
+    {
+      Iterator<Map.Entry<String, LinkedList<Task>>> it = reports.entrySet().iterator();
+      if(!it.hasNext())
+        return null;
+
+      Map.Entry<String, LinkedList<Task>> next = it.next();
+      it.remove();
+
+      LinkedList<Task> queue = next.getValue();
+      Task task = queue.removeFirst();
+
+      // move to the end of the line
+      if(!queue.isEmpty())
+        reports.put(next.getKey(), queue);
+      return task;
+    }
+
+    boolean remove(Task task)
+    {
+      LinkedList<Task> queue = reports.get(task.reportName);
+      if(null==queue || !queue.remove(task))
+        return false;
+      if(queue.isEmpty())
+        reports.remove(task.reportName);
+      return true;
+    }
+
+    /* the newest droppable task of the report with the most queued work */
+    Task removeNewest()
+    {
+      String longest = null;
+      Task victim = null;
+      for(Map.Entry<String, LinkedList<Task>> e : reports.entrySet())
+      {
+        if(longest!=null && e.getValue().size() <= reports.get(longest).size())
+          continue;
+
+        ListIterator<Task> it = e.getValue().listIterator(e.getValue().size());
+        while(it.hasPrevious())
+        {
+          Task task = it.previous();
+          if(task.droppable)
+          {
+            longest = e.getKey();
+            victim = task;
+            break;
+          }
+        }
+      }
+
+      if(null==victim)
+        return null;
+
+      LinkedList<Task> queue = reports.get(longest);
+      queue.remove(victim);
+      if(queue.isEmpty())
+        reports.remove(longest);
+      return victim;
+    }
+  }
+
+  private static class Task<T> extends FutureTask<T>
+  {
+    RenderMetaData.Priority priority;
+    long deadline;
+    String reportName;
+    boolean droppable;
+
+    Task(Callable<T> work, RenderMetaData.Priority priority, long deadline, String reportName, boolean droppable)
+    {
+      super(work);
+      this.priority = priority;
+      this.deadline = deadline;
+      this.reportName = reportName!=null ? reportName : "";
+      this.droppable = droppable;
+    }
+
+    boolean isExpired(long now)
+    {
+      return deadline > 0 && now > deadline;
+    }
+
+    void reject(String message)
+    {
+      setException(new RejectedExecutionException(message));
+    }
+  }
+}
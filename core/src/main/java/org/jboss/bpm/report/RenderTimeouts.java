@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.util.FileUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Time budgets of individual reports, read from <code>$WORK_DIR/timeouts.properties</code>:
+ * <pre>
+ * # seconds, zero means no timeout
+ * sales.rptdesign=1800
+ * </pre>
+ *
+ * Reports that are not listed use the default render timeout.
+ * The file is read again when it changes.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class RenderTimeouts
+{
+  private static final Log log = LogFactory.getLog(RenderTimeouts.class);
+
+  public static final String CONFIG_FILE = "timeouts.properties";
+
+  private File configFile;
+  private long defaultTimeout;
+
+  private Map<String, Long> timeouts = new HashMap<String, Long>();
+  private long version = -1;
+
+  public RenderTimeouts(File configFile, long defaultTimeout)
+  {
+    this.configFile = configFile;
+    this.defaultTimeout = defaultTimeout;
+  }
+
+  /**
+   * The time (in ms) a render may take. A request may ask for less, but not for more
+   * than the budget of it's report.
+   *
+   * @param requested the budget of the request, zero if it has none
+   * @return the budget or zero for no timeout
+   */
+  public long getTimeout(String reportName, long requested)
+  {
+    Long budget = lookup(reportName);
+    long timeout = budget!=null ? budget.longValue() : defaultTimeout;
+
+    if(requested > 0 && (timeout <= 0 || requested < timeout))
+      timeout = requested;
+    return timeout;
+  }
+
+  private synchronized Long lookup(String reportName)
+  {
+    long current = configFile.exists() ? configFile.lastModified() + configFile.length() : 0;
+    if(current!=version)
+    {
+      timeouts = load();
+      version = current;
+    }
+    return timeouts.get(reportName);
+  }
+
+  private Map<String, Long> load()
+  {
+    Map<String, Long> result = new HashMap<String, Long>();
+    if(!configFile.exists())
+      return result;
+
+    Properties props = new Properties();
+    FileInputStream in = null;
+    try
+    {
+      in = new FileInputStream(configFile);
+      props.load(in);
+    }
+    catch (IOException e)
+    {
+      log.error("Failed to read " + configFile, e);
+      return result;
+    }
+    finally
+    {
+      FileUtil.close(in);
+    }
+
+    for(Object k : props.keySet())
+    {
+      String reportName = (String)k;
+      try
+      {
+        result.put(reportName, Long.parseLong(props.getProperty(reportName).trim()) * 1000);
+      }
+      catch (NumberFormatException e)
+      {
+        log.warn("Ignore render timeout of " + reportName + ": " + props.getProperty(reportName));
+      }
+    }
+
+    log.debug("Loaded render timeouts " + result);
+    return result;
+  }
+}
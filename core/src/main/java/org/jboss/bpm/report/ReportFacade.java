@@ -22,21 +22,40 @@
 package org.jboss.bpm.report;
 
 import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.metrics.RenderMetrics;
 import org.jboss.bpm.report.model.ReportReference;
+import org.jboss.bpm.report.util.Compression;
+import org.jboss.bpm.report.util.FileResponseBuilder;
+import org.jboss.bpm.report.util.MergedPdfBatchSink;
+import org.jboss.bpm.report.util.WriteListener;
+import org.jboss.bpm.report.util.ZipBatchSink;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * BIRT integration facade.<p>
@@ -60,7 +79,25 @@ import java.util.StringTokenizer;
 public class ReportFacade
 {
   private static final Log log = LogFactory.getLog(ReportFacade.class);
+
+  /* the id of a rendered document, can be passed to GET render/{fileName}?document= */
+  public static final String DOCUMENT_HEADER = "X-Report-Document";
+
+  /* session attribute prefix of the document a client rendered last */
+  private static final String LATEST_DOCUMENT = "org.jboss.bpm.report.document.";
+
+  public static final String PAGE_COUNT_HEADER = "X-Report-Page-Count";
+
+  /* the time the viewed document was rendered */
+  public static final String RENDERED_HEADER = "X-Report-Rendered";
+
+  /* seconds a client is willing to wait for the render, capped by the report budget */
+  public static final String RENDER_TIMEOUT_HEADER = "X-Render-Timeout";
+
   private BirtService birtService;
+
+  private String configJson;
+  private byte[] compressedConfigJson;
   private boolean isInitialized;
   private boolean initAttempt;
 
@@ -78,6 +115,16 @@ public class ReportFacade
     }
   }
 
+  /**
+   * Release the BIRT service, including the render worker processes.
+   * Invoked when the application is undeployed.
+   */
+  public void destroy()
+  {
+    if(birtService!=null)
+      birtService.destroy();
+  }
+
   public void initBirtService()
       throws BirtInitException
   {
@@ -90,7 +137,7 @@ public class ReportFacade
 
       String birtDataDir = absServerDataDir;
       String defaultBirtHome = birtDataDir + "/ReportEngine";
-      String birtOutputDir = birtDataDir + "/output";
+      String birtOutputDir = System.getProperty("org.jbpm.report.output.dir", birtDataDir + "/output");
 
       File birtOutput = new File(birtOutputDir);
       birtOutput.mkdirs(); // will create parent directoy as well
@@ -103,7 +150,64 @@ public class ReportFacade
 
       iConfig.setBirtHome(defaultBirtHome);
       iConfig.setOutputDir( birtOutputDir );
-      iConfig.setReportDir( birtDataDir );
+      iConfig.setReportDir( System.getProperty("org.jbpm.report.report.dir", birtDataDir) );
+      iConfig.setDocumentCacheMaxAge(
+          Long.getLong("org.jbpm.report.cache.maxAge", iConfig.getDocumentCacheMaxAge())
+      );
+      iConfig.setDocumentCacheMaxSize(
+          Long.getLong("org.jbpm.report.cache.maxSize", iConfig.getDocumentCacheMaxSize())
+      );
+      iConfig.setRenderThreads(
+          Integer.getInteger("org.jbpm.report.render.threads", iConfig.getRenderThreads())
+      );
+      iConfig.setRenderQueueSize(
+          Integer.getInteger("org.jbpm.report.render.queueSize", iConfig.getRenderQueueSize())
+      );
+      iConfig.setJobQueueSize(
+          Integer.getInteger("org.jbpm.report.job.queueSize", iConfig.getJobQueueSize())
+      );
+      iConfig.setInteractiveDeadline(
+          Long.getLong("org.jbpm.report.render.deadline", iConfig.getInteractiveDeadline())
+      );
+      iConfig.setRenderTimeout(
+          Long.getLong("org.jbpm.report.render.timeout", iConfig.getRenderTimeout())
+      );
+      iConfig.setOutputQuota(
+          Long.getLong("org.jbpm.report.output.quota", iConfig.getOutputQuota())
+      );
+      iConfig.setReloadInterval(
+          Long.getLong("org.jbpm.report.reload.interval", iConfig.getReloadInterval())
+      );
+      iConfig.setPreloadThreads(
+          Integer.getInteger("org.jbpm.report.preload.threads", iConfig.getPreloadThreads())
+      );
+      iConfig.setSelectionListMaxAge(
+          Long.getLong("org.jbpm.report.selection.maxAge", iConfig.getSelectionListMaxAge())
+      );
+      iConfig.setWorkerProcesses(
+          Integer.getInteger("org.jbpm.report.worker.processes", iConfig.getWorkerProcesses())
+      );
+      iConfig.setWorkerMaxRenders(
+          Integer.getInteger("org.jbpm.report.worker.maxRenders", iConfig.getWorkerMaxRenders())
+      );
+      iConfig.setWorkerJvmArgs(
+          System.getProperty("org.jbpm.report.worker.jvmArgs", iConfig.getWorkerJvmArgs())
+      );
+      iConfig.setWorkerClasspath(
+          System.getProperty("org.jbpm.report.worker.classpath", iConfig.getWorkerClasspath())
+      );
+      iConfig.setSharedOutput(
+          Boolean.getBoolean("org.jbpm.report.output.shared")
+      );
+      iConfig.setNodeId(
+          System.getProperty("org.jbpm.report.node.id", iConfig.getNodeId())
+      );
+      iConfig.setLeaseTimeout(
+          Long.getLong("org.jbpm.report.lease.timeout", iConfig.getLeaseTimeout())
+      );
+      iConfig.setRenderListener(
+          System.getProperty("org.jbpm.report.render.listener", iConfig.getRenderListener())
+      );
 
       log.info("BIRT home: " +iConfig.getBirtHome());
       log.info("Output dir: " +iConfig.getOutputDir());
@@ -167,6 +271,10 @@ public class ReportFacade
   public Response viewReportHtml(
       @PathParam("fileName")
       String fileName,
+      @QueryParam("document")
+      String documentId,
+      @QueryParam("stream") @DefaultValue("false")
+      boolean stream,
       @Context HttpServletRequest request
   )
   {
@@ -174,14 +282,30 @@ public class ReportFacade
 
     try
     {
-      RenderMetaData renderMeta = defaultRenderMetaData(fileName, request);
+      final RenderMetaData renderMeta = defaultRenderMetaData(fileName, request);
+      renderMeta.setDocumentId(resolveDocumentId(fileName, documentId, request));
+
+      if(stream)
+      {
+        return withRenderedHeader(streamingResponse(
+            new ReportStream(Compression.acceptsGzip(request))
+            {
+              void render(OutputStream out)
+              {
+                birtService.view(renderMeta, out);
+              }
+            }, "text/html"
+        ), renderMeta);
+      }
 
       String outputFileName = birtService.view(renderMeta);
       String absoluteFile = birtService.getIntegrationConfig().getOutputDir() + outputFileName;
       log.debug("View " + absoluteFile);
 
       File reportFile = new File(absoluteFile);
-      return Response.ok(reportFile).type("text/html").build();
+      return withRenderedHeader(
+          FileResponseBuilder.buildOnce(reportFile, "text/html", true, request, releaseOutput(renderMeta)), renderMeta
+      );
     }
     catch(Throwable e1)
     {
@@ -189,6 +313,93 @@ public class ReportFacade
     }
   }
 
+  /**
+   * View a single page of a rendered report document.
+   * The total number of pages is returned in the {@link #PAGE_COUNT_HEADER}.
+   */
+  @GET
+  @Path("render/{fileName}/page/{pageNumber}")
+  @Produces("text/html")
+  public Response viewReportPage(
+      @PathParam("fileName")
+      String fileName,
+      @PathParam("pageNumber")
+      long pageNumber,
+      @QueryParam("document")
+      String documentId,
+      @Context HttpServletRequest request,
+      @Context Request restRequest
+  )
+  {
+    assertBirtAvailability();
+
+    try
+    {
+      RenderMetaData renderMeta = defaultRenderMetaData(fileName, request);
+      renderMeta.setDocumentId(resolveDocumentId(fileName, documentId, request));
+
+      String outputFileName = birtService.viewPage(renderMeta, pageNumber);
+      WriteListener release = releaseOutput(renderMeta);
+      long pageCount;
+      try
+      {
+        pageCount = birtService.getPageCount(renderMeta);
+      }
+      catch (RuntimeException e)
+      {
+        release.written(0);
+        throw e;
+      }
+      String absoluteFile = birtService.getIntegrationConfig().getOutputDir() + outputFileName;
+      log.debug("View page " + absoluteFile);
+
+      Response response = FileResponseBuilder.build(
+          new File(absoluteFile), "text/html", true, restRequest, request, release
+      );
+      response.getMetadata().putSingle(PAGE_COUNT_HEADER, String.valueOf(pageCount));
+      response.getMetadata().putSingle(DOCUMENT_HEADER, renderMeta.getDocumentId());
+      return withRenderedHeader(response, renderMeta);
+    }
+    catch(Throwable e1)
+    {
+      return gracefulException(e1);
+    }
+  }
+
+  /**
+   * The requested document, or the one this client rendered last.
+   * Documents rendered by other clients or in the background are never picked implicitly.
+   */
+  private static String resolveDocumentId(String fileName, String documentId, HttpServletRequest request)
+  {
+    if(documentId!=null)
+      return documentId;
+
+    HttpSession session = request.getSession(false);
+    return session!=null ? (String)session.getAttribute(LATEST_DOCUMENT + fileName) : null;
+  }
+
+  /* output isn't removed before it's been written to the client, which also ends the request's timing */
+  private WriteListener releaseOutput(final RenderMetaData renderMeta)
+  {
+    return new WriteListener()
+    {
+      public void written(long bytes)
+      {
+        birtService.releaseOutput(renderMeta, bytes);
+      }
+    };
+  }
+
+  /* tells clients how fresh a (pre-)rendered document is */
+  private Response withRenderedHeader(Response response, RenderMetaData renderMeta)
+  {
+    long rendered = birtService.getDocumentTimestamp(renderMeta);
+    if(rendered!=-1)
+      response.getMetadata().putSingle(RENDERED_HEADER, FileResponseBuilder.formatDate(new Date(rendered)));
+    return response;
+  }
+
   private void assertBirtAvailability()
   {
     if(!isInitialized)
@@ -218,7 +429,311 @@ public class ReportFacade
       String absoluteFile = birtService.getIntegrationConfig().getOutputDir() + outputFileName;
       log.debug("Render " + absoluteFile);
 
-      return Response.ok().type("text/html").build();
+      // viewed by default, for clients that don't pass the document id
+      request.getSession(true).setAttribute(LATEST_DOCUMENT + fileName, renderMeta.getDocumentId());
+
+      return withRenderedHeader(
+          Response.ok().type("text/html").header(DOCUMENT_HEADER, renderMeta.getDocumentId()).build(),
+          renderMeta
+      );
+    }
+    catch(Throwable e1)
+    {
+      return gracefulException(e1);
+    }
+  }
+
+  /**
+   * Run and render a report in a single pass, without keeping
+   * the intermediate report document. Suitable for output that is viewed once.
+   * Accepts the same parameters as {@link #renderReportHtml(String, HttpServletRequest)}.
+   * With <code>stream=true</code> the report is rendered straight into the response.
+   */
+  @POST
+  @Path("view/{fileName}")
+  @Produces({"text/html", "application/pdf"})
+  public Response runAndRenderReport(
+      @PathParam("fileName")
+      String fileName,
+      @QueryParam("format")
+      String format,
+      @QueryParam("stream") @DefaultValue("false")
+      boolean stream,
+      @Context HttpServletRequest request
+  )
+  {
+    assertBirtAvailability();
+
+    try
+    {
+      final RenderMetaData renderMeta = defaultRenderMetaData(fileName, request);
+      renderMeta.setFormat(parseFormat(format));
+      Map<String,String> postParams = convertRequestParametersToMap(request);
+      renderMeta.getParameters().putAll(postParams);
+
+      boolean compressible = renderMeta.getFormat()==RenderMetaData.Format.HTML;
+
+      if(stream)
+      {
+        return streamingResponse(
+            new ReportStream(compressible && Compression.acceptsGzip(request))
+            {
+              void render(OutputStream out)
+              {
+                birtService.runAndRender(renderMeta, out);
+              }
+            }, getContentType(renderMeta.getFormat())
+        );
+      }
+
+      String outputFileName = birtService.runAndRender(renderMeta);
+      String absoluteFile = birtService.getIntegrationConfig().getOutputDir() + outputFileName;
+      log.debug("Run and render " + absoluteFile);
+
+      return FileResponseBuilder.buildOnce(
+          new File(absoluteFile), getContentType(renderMeta.getFormat()), compressible, request,
+          releaseOutput(renderMeta)
+      );
+    }
+    catch(Throwable e1)
+    {
+      return gracefulException(e1);
+    }
+  }
+
+  /**
+   * Render a report for many parameter sets at once.
+   * The request body is a JSON array of parameter maps, i.e.
+   * <code>[{"customer":"1"}, {"customer":"2"}]</code>.<p>
+   *
+   * The response is a ZIP archive with an entry per parameter set,
+   * or with <code>merge=true</code> (PDF only), a single merged PDF document.
+   * Results are streamed as they complete.
+   */
+  @POST
+  @Path("batch/{fileName}")
+  @Produces({"application/zip", "application/pdf"})
+  public Response renderBatch(
+      @PathParam("fileName")
+      final String fileName,
+      @QueryParam("format")
+      String format,
+      @QueryParam("merge") @DefaultValue("false")
+      final boolean merge,
+      @Context HttpServletRequest request
+  )
+  {
+    assertBirtAvailability();
+
+    try
+    {
+      final RenderMetaData renderMeta = defaultRenderMetaData(fileName, request);
+      renderMeta.setFormat(parseFormat(format));
+      renderMeta.setPriority(RenderMetaData.Priority.BACKGROUND);
+      renderMeta.setDeadline(0);
+
+      if(merge && renderMeta.getFormat()!=RenderMetaData.Format.PDF)
+        throw new IllegalArgumentException("Only PDF output can be merged");
+
+      final List<Map<String,String>> parameterSets = readParameterSets(request);
+
+      ReportStream stream = new ReportStream(false)
+      {
+        void render(OutputStream out)
+        {
+          try
+          {
+            BatchSink sink = merge ?
+                new MergedPdfBatchSink(out) :
+                new ZipBatchSink(out, fileName.substring(0, fileName.indexOf('.')), "."+renderMeta.getFormat().name().toLowerCase());
+            birtService.renderBatch(renderMeta, parameterSets, sink);
+          }
+          catch (IOException e)
+          {
+            throw new RuntimeException("Failed to write batch", e);
+          }
+        }
+      };
+
+      return Response.ok(stream)
+          .type(merge ? "application/pdf" : "application/zip")
+          .build();
+    }
+    catch(Throwable e1)
+    {
+      return gracefulException(e1);
+    }
+  }
+
+  private static List<Map<String,String>> readParameterSets(HttpServletRequest request) throws IOException
+  {
+    StringBuffer sb = new StringBuffer();
+    BufferedReader br = request.getReader();
+    try
+    {
+      char[] buffer = new char[4096];
+      int n;
+      while((n = br.read(buffer)) != -1)
+        sb.append(buffer, 0, n);
+    }
+    finally
+    {
+      br.close();
+    }
+
+    List<Map<String,String>> parameterSets = new GsonBuilder().create().fromJson(
+        sb.toString(), new TypeToken<List<Map<String,String>>>(){}.getType()
+    );
+
+    if(null==parameterSets || parameterSets.isEmpty())
+      throw new IllegalArgumentException("No parameter sets given");
+
+    return parameterSets;
+  }
+
+  private static RenderMetaData.Format parseFormat(String format)
+  {
+    if(null==format)
+      return RenderMetaData.Format.HTML;
+
+    try
+    {
+      return RenderMetaData.Format.valueOf(format.toUpperCase());
+    }
+    catch (IllegalArgumentException e)
+    {
+      throw new IllegalArgumentException("Unsupported output format: " + format);
+    }
+  }
+
+  private static String getContentType(RenderMetaData.Format format)
+  {
+    return format==RenderMetaData.Format.PDF ? "application/pdf" : "text/html";
+  }
+
+  /**
+   * Submit a render job. Returns immediately with the job status.
+   * Accepts the same parameters as {@link #renderReportHtml(String, HttpServletRequest)}.
+   */
+  @POST
+  @Path("render/{fileName}/job")
+  @Produces("application/json")
+  public Response submitRenderJob(
+      @PathParam("fileName")
+      String fileName,
+      @Context HttpServletRequest request
+  )
+  {
+    assertBirtAvailability();
+
+    try
+    {
+      RenderMetaData renderMeta = defaultRenderMetaData(fileName, request);
+      Map<String,String> postParams = convertRequestParametersToMap(request);
+      renderMeta.getParameters().putAll(postParams);
+
+      RenderJob job = birtService.submitJob(renderMeta);
+      log.debug("Submitted " + job);
+
+      return Response.status(202)
+          .entity(new GsonBuilder().create().toJson(job))
+          .type("application/json")
+          .build();
+    }
+    catch(Throwable e1)
+    {
+      return gracefulException(e1);
+    }
+  }
+
+  @GET
+  @Path("job/{jobId}")
+  @Produces("application/json")
+  public Response getRenderJob(
+      @PathParam("jobId")
+      String jobId
+  )
+  {
+    assertBirtAvailability();
+
+    RenderJob job = birtService.getJob(jobId);
+    if(null==job)
+      return Response.status(404).build();
+
+    return Response.ok(new GsonBuilder().create().toJson(job)).build();
+  }
+
+  /**
+   * Selection list of a cascading parameter, given the values of the preceding
+   * parameters in the group, i.e. <code>parameters/sales.rptdesign/cascade/location?key=EMEA&key=Germany</code>
+   */
+  @GET
+  @Path("parameters/{fileName}/cascade/{groupName}")
+  @Produces("application/json")
+  public Response getCascadingSelectionList(
+      @PathParam("fileName")
+      String fileName,
+      @PathParam("groupName")
+      String groupName,
+      @QueryParam("key")
+      List<String> keys,
+      @Context HttpServletRequest request
+  )
+  {
+    assertBirtAvailability();
+
+    try
+    {
+      RenderMetaData renderMeta = defaultRenderMetaData(fileName, request);
+      Map<String,String> selectionList = birtService.getCascadingSelectionList(
+          renderMeta, groupName, keys!=null ? keys : new ArrayList<String>()
+      );
+      return Response.ok(new GsonBuilder().create().toJson(selectionList)).build();
+    }
+    catch(Throwable e1)
+    {
+      return gracefulException(e1);
+    }
+  }
+
+  /**
+   * View the result of a render job. Answers <code>202</code> with the job status
+   * while the job is still pending.
+   */
+  @GET
+  @Path("job/{jobId}/result")
+  @Produces({"text/html", "application/json"})
+  public Response getRenderJobResult(
+      @PathParam("jobId")
+      String jobId,
+      @Context HttpServletRequest request
+  )
+  {
+    assertBirtAvailability();
+
+    RenderJob job = birtService.getJob(jobId);
+    if(null==job)
+      return Response.status(404).build();
+
+    try
+    {
+      switch(job.getState())
+      {
+        case FINISHED:
+          RenderMetaData renderMeta = defaultRenderMetaData(job.getReportName(), request);
+          renderMeta.setDocumentId(job.getDocumentId());
+
+          String outputFileName = birtService.view(renderMeta);
+          File reportFile = new File(birtService.getIntegrationConfig().getOutputDir() + outputFileName);
+          return FileResponseBuilder.buildOnce(reportFile, "text/html", true, request, releaseOutput(renderMeta));
+        case FAILED:
+          throw new IllegalStateException(job.getError());
+        default:
+          return Response.status(202)
+              .entity(new GsonBuilder().create().toJson(job))
+              .type("application/json")
+              .build();
+      }
     }
     catch(Throwable e1)
     {
@@ -232,7 +747,8 @@ public class ReportFacade
       @PathParam("fileName")
       String fileName,
       @Context HttpServletRequest
-          request
+          request,
+      @Context Request restRequest
   )
   {
     assertBirtAvailability();
@@ -242,7 +758,39 @@ public class ReportFacade
     File imageFile = new File(absName);
     if(!imageFile.exists())
       throw new IllegalArgumentException("Image " +absName+" doesn't exist");
-    return Response.ok(imageFile).build();
+    return FileResponseBuilder.build(imageFile, null, restRequest, request);
+  }
+
+  @GET
+  @Path("view/image/{shard}/{owner}/{fileName}")
+  public Response getImage(
+      @PathParam("shard")
+      String shard,
+      @PathParam("owner")
+      String owner,
+      @PathParam("fileName")
+      String fileName,
+      @Context HttpServletRequest
+          request,
+      @Context Request restRequest
+  )
+  {
+    assertBirtAvailability();
+
+    if(!isPathSegment(shard) || !isPathSegment(owner) || !isPathSegment(fileName))
+      throw new IllegalArgumentException("Illegal image path");
+
+    String imageDir = birtService.getIntegrationConfig().getImageDirectory();
+    String absName = imageDir + shard + "/" + owner + "/" + fileName;
+    File imageFile = new File(absName);
+    if(!imageFile.exists())
+      throw new IllegalArgumentException("Image " +absName+" doesn't exist");
+    return FileResponseBuilder.build(imageFile, null, restRequest, request);
+  }
+
+  private static boolean isPathSegment(String segment)
+  {
+    return segment.matches("[A-Za-z0-9._-]+") && !segment.contains("..");
   }
 
   private RenderMetaData defaultRenderMetaData(String fileName, HttpServletRequest request)
@@ -252,6 +800,26 @@ public class ReportFacade
     renderMeta.setFormat(RenderMetaData.Format.HTML);
     renderMeta.setClassloader(Thread.currentThread().getContextClassLoader());
     renderMeta.setImageBaseUrl(buildImageUrl(request));
+
+    // someone is waiting for it
+    renderMeta.setPriority(RenderMetaData.Priority.INTERACTIVE);
+    long deadline = birtService.getIntegrationConfig().getInteractiveDeadline();
+    if(deadline > 0)
+      renderMeta.setDeadline(System.currentTimeMillis() + deadline);
+
+    // a client may give up sooner than the report budget allows
+    String timeout = request.getHeader(RENDER_TIMEOUT_HEADER);
+    if(timeout!=null)
+    {
+      try
+      {
+        renderMeta.setTimeout(Long.parseLong(timeout.trim()) * 1000);
+      }
+      catch (NumberFormatException e)
+      {
+        log.debug("Ignore invalid render timeout: " + timeout);
+      }
+    }
     return renderMeta;
   }
 
@@ -276,7 +844,14 @@ public class ReportFacade
     sb.append("<h3>Unable to process report").append("</h3>");
     sb.append(e.getMessage());
     sb.append("</div>");
-    return Response.ok(sb.toString()).status(400).build();
+
+    // render or job queue full, or the render ran out of time
+    int status = 400;
+    if(e instanceof RejectedExecutionException)
+      status = 503;
+    else if(e instanceof CancellationException)
+      status = 504;
+    return Response.ok(sb.toString()).status(status).build();
   }
 
   static public Map<String, String> convertRequestParametersToMap(HttpServletRequest request){
@@ -323,13 +898,116 @@ public class ReportFacade
   @GET
   @Path("config")
   @Produces("application/json")
-  public Response getReportConfig()
+  public Response getReportConfig(
+      @Context HttpServletRequest request
+  )
   {
     assertBirtAvailability();
 
     List<ReportReference> refs = birtService.getReportReferences();
     String json = new GsonBuilder().create().toJson(refs);
-    return Response.ok(json).build();
+
+    if(Compression.acceptsGzip(request))
+    {
+      return Response.ok(getCompressedConfig(json))
+          .header("Content-Encoding", Compression.GZIP)
+          .header("Vary", "Accept-Encoding")
+          .build();
+    }
+
+    return Response.ok(json).header("Vary", "Accept-Encoding").build();
+  }
+
+  /**
+   * Render metrics in the Prometheus text format.
+   * The same figures are available as MBeans.
+   *
+   * @see RenderMetrics
+   */
+  @GET
+  @Path("metrics")
+  @Produces("text/plain")
+  public Response getMetrics()
+  {
+    assertBirtAvailability();
+
+    // the service is created in the background
+    RenderMetrics metrics = birtService.getMetrics();
+    if(null==metrics)
+      return Response.status(503).build();
+
+    StringWriter out = new StringWriter();
+    metrics.writeText(out);
+    return Response.ok(out.toString()).type("text/plain; version=0.0.4").build();
+  }
+
+  /* the catalogue rarely changes, so it's compressed only once */
+  private synchronized byte[] getCompressedConfig(String json)
+  {
+    if(!json.equals(configJson))
+    {
+      try
+      {
+        compressedConfigJson = Compression.compress(json.getBytes("UTF-8"));
+        configJson = json;
+      }
+      catch (UnsupportedEncodingException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+    return compressedConfigJson;
+  }
+
+  private Response streamingResponse(ReportStream stream, String contentType)
+  {
+    Response.ResponseBuilder builder = Response.ok(stream).type(contentType);
+    if(stream.compress)
+      builder.header("Content-Encoding", Compression.GZIP);
+    if(contentType.equals("text/html"))
+      builder.header("Vary", "Accept-Encoding");
+    return builder.build();
+  }
+
+  /**
+   * Renders a report directly into the response stream.
+   * Failures that occur after the first byte has been written
+   * can only be signaled by aborting the response.
+   */
+  private abstract class ReportStream implements StreamingOutput
+  {
+    boolean compress;
+
+    ReportStream(boolean compress)
+    {
+      this.compress = compress;
+    }
+
+    abstract void render(OutputStream out);
+
+    public void write(OutputStream outputStream) throws IOException, WebApplicationException
+    {
+      GZIPOutputStream gzip = compress ? new GZIPOutputStream(outputStream, 8192) : null;
+      BufferedOutputStream out = new BufferedOutputStream(compress ? gzip : outputStream);
+      try
+      {
+        render(out);
+        out.flush();
+        if(gzip!=null)
+          gzip.finish();
+      }
+      catch (CancellationException e)
+      {
+        // timed out or the client went away
+        log.info(e.getMessage());
+        throw new WebApplicationException(e, 504);
+      }
+      catch (RuntimeException e)
+      {
+        log.error("Error streaming report", e);
+        throw new WebApplicationException(e, 500);
+      }
+    }
   }
 
   public class BirtInitException extends Exception
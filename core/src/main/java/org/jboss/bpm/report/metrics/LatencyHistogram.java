@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with logarithmic buckets, from 100 microseconds
+ * to a few hours. Each bucket is about 19% wider than the previous one,
+ * which bounds the error of the percentiles.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class LatencyHistogram
+{
+  private static final long MIN_NANOS = 100 * 1000L;
+  private static final long MAX_NANOS = 4 * 60 * 60 * 1000L * 1000 * 1000;
+
+  /* upper bound of each bucket, the last one takes everything above */
+  private static final long[] BOUNDS;
+
+  static
+  {
+    int n = 0;
+    double bound = MIN_NANOS;
+    long[] bounds = new long[256];
+    while(bound < MAX_NANOS)
+    {
+      bounds[n++] = (long)bound;
+      bound *= Math.pow(2, 0.25);
+    }
+    bounds[n++] = Long.MAX_VALUE;
+
+    BOUNDS = new long[n];
+    System.arraycopy(bounds, 0, BOUNDS, 0, n);
+  }
+
+  private AtomicLongArray counts = new AtomicLongArray(BOUNDS.length);
+  private AtomicLong count = new AtomicLong();
+  private AtomicLong sum = new AtomicLong();
+  private AtomicLong max = new AtomicLong();
+
+  public void record(long nanos)
+  {
+    if(nanos < 0)
+      nanos = 0;
+
+    int i = Arrays.binarySearch(BOUNDS, nanos);
+    counts.incrementAndGet(i >= 0 ? i : -i-1);
+    count.incrementAndGet();
+    sum.addAndGet(nanos);
+
+    long current;
+    while(nanos > (current = max.get()))
+    {
+      if(max.compareAndSet(current, nanos))
+        break;
+    }
+  }
+
+  public long getCount()
+  {
+    return count.get();
+  }
+
+  /**
+   * @return mean in ms, zero if nothing has been recorded
+   */
+  public double getMean()
+  {
+    long n = count.get();
+    return n > 0 ? toMillis(sum.get()) / n : 0;
+  }
+
+  /**
+   * @return total of all samples in ms
+   */
+  public double getSum()
+  {
+    return toMillis(sum.get());
+  }
+
+  public double getMax()
+  {
+    return toMillis(max.get());
+  }
+
+  /**
+   * The latency (in ms) below which the given fraction of samples fall.
+   * Reported as the upper bound of the bucket it falls into.
+   *
+   * @param quantile i.e. 0.95
+   */
+  public double getPercentile(double quantile)
+  {
+    long[] snapshot = new long[BOUNDS.length];
+    long total = 0;
+    for(int i=0; i<snapshot.length; i++)
+    {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+
+    if(total==0)
+      return 0;
+
+    long rank = Math.max(1, (long)Math.ceil(quantile * total));
+    long seen = 0;
+    for(int i=0; i<snapshot.length; i++)
+    {
+      seen += snapshot[i];
+      if(seen >= rank)
+        return toMillis(Math.min(BOUNDS[i], max.get()));
+    }
+    return getMax();
+  }
+
+  private static double toMillis(long nanos)
+  {
+    return nanos / 1000000.0;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.metrics;
+
+/**
+ * Notified about the phases of each render, i.e. to emit profiler events.<p>
+ *
+ * Phases are reported on the thread that executes them,
+ * so that they line up with anything else a profiler records for that thread.
+ * Implementations need a public default constructor,
+ * see {@link org.jboss.bpm.report.IntegrationConfig#getRenderListener()}.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public interface RenderListener
+{
+  /**
+   * A phase is about to start.
+   *
+   * @param format the output format, or null if the phase doesn't depend on it
+   * @param parameterHash hash of the render parameters, 0 if the phase doesn't depend on them
+   * @return completed when the phase ends, or null if the phase is of no interest
+   */
+  Span begin(RenderMetrics.Phase phase, String reportName, String format, int parameterHash);
+
+  /**
+   * A phase in progress.
+   */
+  interface Span
+  {
+    /**
+     * The phase completed. It's not invoked when the phase failed.
+     *
+     * @param bytes size of the design, document or output, -1 if unknown
+     * @param pages number of pages, -1 if unknown
+     */
+    void complete(long bytes, long pages);
+  }
+}
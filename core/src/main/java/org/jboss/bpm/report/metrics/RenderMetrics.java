@@ -0,0 +1,380 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.JMXServerConfig;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where render time goes: latency histograms per report and phase,
+ * outcome counters and gauges of the render queue and caches.<p>
+ *
+ * Registered as <code>jboss.bpm.report:service=RenderMetrics</code>,
+ * with a <code>report=...</code> MBean for each report that has been rendered.
+ * The MBeans are unregistered when the service is destroyed on undeploy. Those left
+ * behind by a deployment that wasn't shut down cleanly are replaced on registration.
+ * {@link #writeText(Writer)} renders everything in the Prometheus text format.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class RenderMetrics implements RenderMetricsMBean
+{
+  private static final Log log = LogFactory.getLog(RenderMetrics.class);
+
+  public static final String DOMAIN = "jboss.bpm.report";
+
+  /**
+   * <ul>
+   * <li>QUEUE: waiting for a render thread
+   * <li>OPEN: parsing a design or opening a report document
+   * <li>PARAMETERS: converting request parameters to the types declared by the design
+   * <li>RUN: running a report, including data retrieval
+   * <li>RENDER: rendering a document into the output format
+   * <li>SERVE: the whole request, from submission to result. For output files it ends once
+   * the file has been written to the client, or the client disconnected, with the bytes written.
+   * </ul>
+   */
+  public enum Phase {QUEUE, OPEN, PARAMETERS, RUN, RENDER, SERVE};
+
+  private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+  /**
+   * A value that is sampled when it's read.
+   */
+  public interface Gauge
+  {
+    long getValue();
+  }
+
+  private ConcurrentMap<String, ReportMetrics> reports = new ConcurrentHashMap<String, ReportMetrics>();
+
+  private AtomicLong documentHits = new AtomicLong();
+  private AtomicLong documentMisses = new AtomicLong();
+  private AtomicLong pageHits = new AtomicLong();
+  private AtomicLong pageMisses = new AtomicLong();
+  private AtomicInteger inFlight = new AtomicInteger();
+
+  private Gauge queueDepth;
+  private volatile RenderListener listener;
+
+  private MBeanServer server;
+  private List<ObjectName> registered = new ArrayList<ObjectName>();
+
+  public RenderMetrics(Gauge queueDepth)
+  {
+    this.queueDepth = queueDepth;
+  }
+
+  /**
+   * Register this and all subsequently created report metrics.
+   */
+  public synchronized void register(MBeanServer server)
+  {
+    this.server = server;
+    register(JMXServerConfig.ObjectNameFactory.create(DOMAIN + ":service=RenderMetrics"), this);
+    for(ReportMetrics report : reports.values())
+      register(objectName(report.getReportName()), report);
+  }
+
+  public synchronized void unregister()
+  {
+    if(null==server)
+      return;
+
+    for(ObjectName name : registered)
+    {
+      try
+      {
+        server.unregisterMBean(name);
+      }
+      catch (Exception e)
+      {
+        log.debug("Failed to unregister " + name, e);
+      }
+    }
+    registered.clear();
+    server = null;
+  }
+
+  private synchronized void register(ObjectName name, Object mbean)
+  {
+    if(null==server)
+      return;
+
+    try
+    {
+      if(server.isRegistered(name))
+      {
+        log.info("Replace " + name + " of a previous deployment");
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(mbean, name);
+      registered.add(name);
+    }
+    catch (Exception e)
+    {
+      log.warn("Failed to register " + name, e);
+    }
+  }
+
+  private static ObjectName objectName(String reportName)
+  {
+    return JMXServerConfig.ObjectNameFactory.create(
+        DOMAIN + ":service=RenderMetrics,report=" + ObjectName.quote(reportName)
+    );
+  }
+
+  public ReportMetrics getReport(String reportName)
+  {
+    ReportMetrics report = reports.get(reportName);
+    if(null==report)
+    {
+      ReportMetrics created = new ReportMetrics(reportName);
+      report = reports.putIfAbsent(reportName, created);
+      if(null==report)
+      {
+        report = created;
+        register(objectName(reportName), report);
+      }
+    }
+    return report;
+  }
+
+  public void record(String reportName, Phase phase, long nanos)
+  {
+    getReport(reportName).record(phase, nanos);
+  }
+
+  /**
+   * Start timing a phase on the current thread.
+   * The listener is notified along with it.
+   *
+   * @param format the output format, or null if the phase doesn't depend on it
+   * @param parameterHash hash of the render parameters, 0 if the phase doesn't depend on them
+   */
+  public Timer start(Phase phase, String reportName, String format, int parameterHash)
+  {
+    RenderListener current = listener;
+    RenderListener.Span span = current!=null ? current.begin(phase, reportName, format, parameterHash) : null;
+    return new Timer(phase, reportName, span);
+  }
+
+  public void setListener(RenderListener listener)
+  {
+    this.listener = listener;
+  }
+
+  public void count(String reportName, ReportMetrics.Outcome outcome)
+  {
+    getReport(reportName).count(outcome);
+  }
+
+  public void documentCacheHit(boolean hit)
+  {
+    (hit ? documentHits : documentMisses).incrementAndGet();
+  }
+
+  public void pageCacheHit(boolean hit)
+  {
+    (hit ? pageHits : pageMisses).incrementAndGet();
+  }
+
+  public void renderStarted()
+  {
+    inFlight.incrementAndGet();
+  }
+
+  public void renderFinished()
+  {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * A phase in progress, see {@link RenderMetrics#start(Phase, String, String, int)}.
+   * Failed phases are not stopped, like they are not recorded.
+   */
+  public class Timer
+  {
+    private Phase phase;
+    private String reportName;
+    private RenderListener.Span span;
+    private long start = System.nanoTime();
+
+    Timer(Phase phase, String reportName, RenderListener.Span span)
+    {
+      this.phase = phase;
+      this.reportName = reportName;
+      this.span = span;
+    }
+
+    public void stop()
+    {
+      stop(-1, -1);
+    }
+
+    /**
+     * @param bytes size of the design, document or output, -1 if unknown
+     * @param pages number of pages, -1 if unknown
+     */
+    public void stop(long bytes, long pages)
+    {
+      record(reportName, phase, System.nanoTime() - start);
+      if(span!=null)
+        span.complete(bytes, pages);
+    }
+  }
+
+  // ----------------------------------------------------
+  // RenderMetricsMBean
+
+  public long getQueueDepth()
+  {
+    return queueDepth.getValue();
+  }
+
+  public int getInFlight()
+  {
+    return inFlight.get();
+  }
+
+  public double getDocumentCacheHitRatio()
+  {
+    return ratio(documentHits.get(), documentMisses.get());
+  }
+
+  public double getPageCacheHitRatio()
+  {
+    return ratio(pageHits.get(), pageMisses.get());
+  }
+
+  public long getCompleted()
+  {
+    return total(ReportMetrics.Outcome.COMPLETED);
+  }
+
+  public long getFailed()
+  {
+    return total(ReportMetrics.Outcome.FAILED);
+  }
+
+  public long getCancelled()
+  {
+    return total(ReportMetrics.Outcome.CANCELLED);
+  }
+
+  public long getRejected()
+  {
+    return total(ReportMetrics.Outcome.REJECTED);
+  }
+
+  public String[] getReportNames()
+  {
+    return new TreeSet<String>(reports.keySet()).toArray(new String[0]);
+  }
+
+  private long total(ReportMetrics.Outcome outcome)
+  {
+    long total = 0;
+    for(ReportMetrics report : reports.values())
+      total += report.getCount(outcome);
+    return total;
+  }
+
+  private static double ratio(long hits, long misses)
+  {
+    return hits + misses > 0 ? (double)hits / (hits + misses) : 0;
+  }
+
+  /**
+   * All metrics in the Prometheus text format. Latencies are in seconds.
+   */
+  public void writeText(Writer writer)
+  {
+    PrintWriter out = new PrintWriter(writer);
+
+    gauge(out, "report_render_queue_depth", "Renders waiting for a render thread", getQueueDepth());
+    gauge(out, "report_renders_in_flight", "Renders in progress", getInFlight());
+    gauge(out, "report_document_cache_hit_ratio", "Renders served from the document cache", getDocumentCacheHitRatio());
+    gauge(out, "report_page_cache_hit_ratio", "Pages served from the page cache", getPageCacheHitRatio());
+
+    out.println("# HELP report_renders_total Renders by outcome");
+    out.println("# TYPE report_renders_total counter");
+    for(String reportName : getReportNames())
+    {
+      ReportMetrics report = reports.get(reportName);
+      for(ReportMetrics.Outcome outcome : ReportMetrics.Outcome.values())
+      {
+        out.println("report_renders_total{report=\"" + escape(reportName) + "\",outcome=\""
+            + outcome.name().toLowerCase() + "\"} " + report.getCount(outcome));
+      }
+    }
+
+    out.println("# HELP report_phase_seconds Latency of each render phase");
+    out.println("# TYPE report_phase_seconds summary");
+    for(String reportName : getReportNames())
+    {
+      ReportMetrics report = reports.get(reportName);
+      for(Phase phase : Phase.values())
+      {
+        LatencyHistogram histogram = report.getHistogram(phase);
+        if(histogram.getCount()==0)
+          continue;
+
+        String labels = "report=\"" + escape(reportName) + "\",phase=\"" + phase.name().toLowerCase() + "\"";
+        for(double quantile : QUANTILES)
+        {
+          out.println("report_phase_seconds{" + labels + ",quantile=\"" + quantile + "\"} "
+              + histogram.getPercentile(quantile) / 1000);
+        }
+        out.println("report_phase_seconds_sum{" + labels + "} " + histogram.getSum() / 1000);
+        out.println("report_phase_seconds_count{" + labels + "} " + histogram.getCount());
+      }
+    }
+
+    out.flush();
+  }
+
+  private static void gauge(PrintWriter out, String name, String help, double value)
+  {
+    out.println("# HELP " + name + " " + help);
+    out.println("# TYPE " + name + " gauge");
+    out.println(name + " " + value);
+  }
+
+  private static String escape(String label)
+  {
+    return label.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+}
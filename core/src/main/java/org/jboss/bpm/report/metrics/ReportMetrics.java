@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.metrics;
+
+import javax.management.*;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of a single report.<p>
+ *
+ * Exposed as a dynamic MBean. There is one counter per {@link Outcome}
+ * (<code>Completed</code>, <code>Failed</code>, <code>Cancelled</code>, <code>Rejected</code>)
+ * and one attribute per {@link RenderMetrics.Phase} and statistic, named <code>&lt;Phase&gt;&lt;Stat&gt;</code>,
+ * i.e. <code>RunP95</code> or <code>RenderMean</code>. The statistics are
+ * <code>Count</code>, <code>Mean</code>, <code>P50</code>, <code>P95</code>, <code>P99</code> and <code>Max</code>.
+ * Latencies are in ms.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class ReportMetrics implements DynamicMBean
+{
+  public enum Outcome {COMPLETED, FAILED, CANCELLED, REJECTED};
+
+  private static final String[] STATS = {"Count", "Mean", "P50", "P95", "P99", "Max"};
+
+  private String reportName;
+  private Map<RenderMetrics.Phase, LatencyHistogram> phases =
+      new EnumMap<RenderMetrics.Phase, LatencyHistogram>(RenderMetrics.Phase.class);
+  private Map<Outcome, AtomicLong> outcomes = new EnumMap<Outcome, AtomicLong>(Outcome.class);
+
+  public ReportMetrics(String reportName)
+  {
+    this.reportName = reportName;
+    for(RenderMetrics.Phase phase : RenderMetrics.Phase.values())
+      phases.put(phase, new LatencyHistogram());
+    for(Outcome outcome : Outcome.values())
+      outcomes.put(outcome, new AtomicLong());
+  }
+
+  public String getReportName()
+  {
+    return reportName;
+  }
+
+  public LatencyHistogram getHistogram(RenderMetrics.Phase phase)
+  {
+    return phases.get(phase);
+  }
+
+  public long getCount(Outcome outcome)
+  {
+    return outcomes.get(outcome).get();
+  }
+
+  void record(RenderMetrics.Phase phase, long nanos)
+  {
+    phases.get(phase).record(nanos);
+  }
+
+  void count(Outcome outcome)
+  {
+    outcomes.get(outcome).incrementAndGet();
+  }
+
+  // ----------------------------------------------------
+  // DynamicMBean
+
+  public Object getAttribute(String attribute) throws AttributeNotFoundException
+  {
+    for(Outcome outcome : Outcome.values())
+    {
+      if(attribute.equals(capitalize(outcome)))
+        return getCount(outcome);
+    }
+
+    for(RenderMetrics.Phase phase : RenderMetrics.Phase.values())
+    {
+      String prefix = capitalize(phase);
+      if(!attribute.startsWith(prefix))
+        continue;
+
+      LatencyHistogram histogram = phases.get(phase);
+      String stat = attribute.substring(prefix.length());
+      if(stat.equals("Count"))
+        return histogram.getCount();
+      else if(stat.equals("Mean"))
+        return histogram.getMean();
+      else if(stat.equals("Max"))
+        return histogram.getMax();
+      else if(stat.equals("P50"))
+        return histogram.getPercentile(0.50);
+      else if(stat.equals("P95"))
+        return histogram.getPercentile(0.95);
+      else if(stat.equals("P99"))
+        return histogram.getPercentile(0.99);
+    }
+
+    throw new AttributeNotFoundException(attribute);
+  }
+
+  public AttributeList getAttributes(String[] attributes)
+  {
+    AttributeList list = new AttributeList();
+    for(String attribute : attributes)
+    {
+      try
+      {
+        list.add(new Attribute(attribute, getAttribute(attribute)));
+      }
+      catch (AttributeNotFoundException e)
+      {
+        // skipped, as the spec allows
+      }
+    }
+    return list;
+  }
+
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+  {
+    throw new AttributeNotFoundException("Read only: " + attribute.getName());
+  }
+
+  public AttributeList setAttributes(AttributeList attributes)
+  {
+    return new AttributeList();
+  }
+
+  public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException
+  {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  public MBeanInfo getMBeanInfo()
+  {
+    List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    for(Outcome outcome : Outcome.values())
+    {
+      attributes.add(new MBeanAttributeInfo(
+          capitalize(outcome), "long", "Renders " + outcome.name().toLowerCase(), true, false, false
+      ));
+    }
+
+    for(RenderMetrics.Phase phase : RenderMetrics.Phase.values())
+    {
+      for(String stat : STATS)
+      {
+        attributes.add(new MBeanAttributeInfo(
+            capitalize(phase) + stat, stat.equals("Count") ? "long" : "double",
+            stat + " of the " + phase.name().toLowerCase() + " phase", true, false, false
+        ));
+      }
+    }
+
+    return new MBeanInfo(
+        getClass().getName(), "Render metrics of " + reportName,
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+        null, null, null
+    );
+  }
+
+  private static String capitalize(Enum e)
+  {
+    String name = e.name();
+    return name.charAt(0) + name.substring(1).toLowerCase();
+  }
+}
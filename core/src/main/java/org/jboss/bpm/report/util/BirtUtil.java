@@ -28,6 +28,7 @@ import org.eclipse.birt.report.model.api.CascadingParameterGroupHandle;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jboss.bpm.report.BirtService;
+import org.jboss.bpm.report.RenderMetaData;
 
 import java.io.Serializable;
 import java.util.HashMap;
@@ -42,6 +43,41 @@ public class BirtUtil
 {
   private static final Log log = LogFactory.getLog(BirtService.class);
   
+  /**
+   * Render options for the requested output format.
+   * The caller needs to specify the output file or stream.
+   *
+   * @param paginated render page breaks, when rendering single pages
+   * @param imageDirectory where images referenced from HTML are written to
+   * @param imageBaseUrl the URL images are served from
+   */
+  public static IRenderOption createRenderOption(
+      RenderMetaData.Format format, boolean paginated, String imageDirectory, String imageBaseUrl)
+  {
+    IRenderOption options = new RenderOption();
+
+    switch(format)
+    {
+      case PDF:
+        options.setOutputFormat("pdf");
+        PDFRenderOption pdfOptions = new PDFRenderOption( options );
+        pdfOptions.setOption( IPDFRenderOption.FIT_TO_PAGE, new Boolean(true) );
+        pdfOptions.setOption( IPDFRenderOption.PAGEBREAK_PAGINATION_ONLY, new Boolean(true) );
+        return pdfOptions;
+      default:
+        options.setOutputFormat("html");
+        HTMLRenderOption htmlOptions = new HTMLRenderOption( options);
+        htmlOptions.setImageHandler(new HTMLServerImageHandler());
+        htmlOptions.setImageDirectory(imageDirectory);
+        htmlOptions.setBaseImageURL(imageBaseUrl);
+        htmlOptions.setHtmlPagination(paginated);
+        htmlOptions.setHtmlRtLFlag(false);
+        //Setting this to true removes html and body tags
+        htmlOptions.setEmbeddable(false);
+        return htmlOptions;
+    }
+  }
+
   //Function to load parameter details in a map.
   public static HashMap<String, Serializable> loadParameterDetails(
       IGetParameterDefinitionTask task,
@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.StringTokenizer;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip content encoding helpers.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class Compression
+{
+  public static final String GZIP = "gzip";
+  public static final String SUFFIX = ".gz";
+
+  /**
+   * True if the client accepts gzip encoded content,
+   * i.e. <code>Accept-Encoding: gzip, deflate</code>, but not <code>gzip;q=0</code>
+   */
+  public static boolean acceptsGzip(HttpServletRequest request)
+  {
+    String header = request.getHeader("Accept-Encoding");
+    if(null==header)
+      return false;
+
+    StringTokenizer st = new StringTokenizer(header, ",");
+    while(st.hasMoreTokens())
+    {
+      String token = st.nextToken().trim();
+      String coding = token;
+      String params = "";
+      int semicolon = token.indexOf(';');
+      if(semicolon!=-1)
+      {
+        coding = token.substring(0, semicolon).trim();
+        params = token.substring(semicolon+1).replaceAll("\\s", "");
+      }
+
+      if(coding.equalsIgnoreCase(GZIP) || coding.equals("*"))
+        return getQuality(params) > 0;
+    }
+
+    return false;
+  }
+
+  private static float getQuality(String params)
+  {
+    if(!params.startsWith("q="))
+      return 1;
+
+    try
+    {
+      return Float.parseFloat(params.substring(2));
+    }
+    catch (NumberFormatException e)
+    {
+      return 1;
+    }
+  }
+
+  /**
+   * Get the pre-compressed variant of a file, which is kept next to the original
+   * (<code>report.html.gz</code>). It's created once and reused as long as
+   * it's not older than the original, so it only pays off for files that are served
+   * repeatedly, like cached pages. Workspace output is compressed on the fly instead.
+   */
+  public static File getCompressedVariant(File file) throws IOException
+  {
+    File variant = new File(file.getPath() + SUFFIX);
+    if(variant.exists() && variant.lastModified() >= file.lastModified())
+      return variant;
+
+    // concurrent requests may compress the same file, the last rename wins
+    File tmpFile = new File(file.getPath() + "-" + UUID.randomUUID() + ".tmp");
+    FileInputStream in = null;
+    GZIPOutputStream out = null;
+    try
+    {
+      in = new FileInputStream(file);
+      out = new GZIPOutputStream(new FileOutputStream(tmpFile), 8192);
+      copy(in, out);
+      out.close();
+      out = null;
+
+      variant.delete();
+      if(!tmpFile.renameTo(variant))
+        throw new IOException("Failed to create " + variant);
+    }
+    finally
+    {
+      FileUtil.close(in);
+      FileUtil.close(out);
+      if(tmpFile.exists())
+        tmpFile.delete();
+    }
+
+    return variant;
+  }
+
+  public static byte[] compress(byte[] data)
+  {
+    try
+    {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length / 4 + 64);
+      GZIPOutputStream out = new GZIPOutputStream(bout);
+      out.write(data);
+      out.close();
+      return bout.toByteArray();
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Failed to compress data", e);
+    }
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException
+  {
+    byte[] buffer = new byte[8192];
+    int n;
+    while((n = in.read(buffer)) != -1)
+      out.write(buffer, 0, n);
+  }
+}
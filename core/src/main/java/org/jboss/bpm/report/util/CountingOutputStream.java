@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to the underlying stream, i.e. the size of streamed report output.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class CountingOutputStream extends FilterOutputStream
+{
+  private long count;
+
+  public CountingOutputStream(OutputStream out)
+  {
+    super(out);
+  }
+
+  public void write(int b) throws IOException
+  {
+    out.write(b);
+    count++;
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    out.write(b, off, len);
+    count += len;
+  }
+
+  public long getCount()
+  {
+    return count;
+  }
+}
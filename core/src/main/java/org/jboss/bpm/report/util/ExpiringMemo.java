@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Memoizes the results of expensive computations for a limited time.
+ * Concurrent requests for the same key share a single computation.
+ * Failures are not memoized.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class ExpiringMemo<K, V>
+{
+  private long maxAge;
+  private ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+
+  public ExpiringMemo(long maxAge)
+  {
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * The memoized value, or the result of the loader if there is none or it expired.
+   * Runtime exceptions of the loader are passed on, checked exceptions are wrapped.
+   */
+  public V get(K key, Callable<V> loader)
+  {
+    long now = System.currentTimeMillis();
+
+    Entry<V> entry = entries.get(key);
+    if(entry!=null && entry.isExpired(now))
+    {
+      entries.remove(key, entry);
+      entry = null;
+    }
+
+    if(null==entry)
+    {
+      Entry<V> created = new Entry<V>(new FutureTask<V>(loader), now);
+      entry = entries.putIfAbsent(key, created);
+      if(null==entry)
+        entry = created;
+    }
+
+    // no-op if another thread is already computing
+    entry.task.run();
+
+    try
+    {
+      return entry.task.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for " + key, e);
+    }
+    catch (ExecutionException e)
+    {
+      entries.remove(key, entry);
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      else if(cause instanceof Error)
+        throw (Error)cause;
+      throw new RuntimeException(cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * Drop expired entries
+   */
+  public void purge()
+  {
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+    while(it.hasNext())
+    {
+      if(it.next().getValue().isExpired(now))
+        it.remove();
+    }
+  }
+
+  public void clear()
+  {
+    entries.clear();
+  }
+
+  public int size()
+  {
+    return entries.size();
+  }
+
+  private class Entry<T>
+  {
+    FutureTask<T> task;
+    long created;
+
+    Entry(FutureTask<T> task, long created)
+    {
+      this.task = task;
+      this.created = created;
+    }
+
+    boolean isExpired(long now)
+    {
+      return now - created > maxAge;
+    }
+  }
+}
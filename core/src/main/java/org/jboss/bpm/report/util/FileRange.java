@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import java.io.File;
+
+/**
+ * A byte range of a file, i.e. the entity of a <code>206 Partial Content</code> response.
+ *
+ * @see FileWriter
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class FileRange
+{
+  private File file;
+  private long offset;
+  private long length;
+  private WriteListener onWritten;
+
+  public FileRange(File file, long offset, long length)
+  {
+    this(file, offset, length, null);
+  }
+
+  /**
+   * @param onWritten invoked once the range has been written, or failed to be written
+   */
+  public FileRange(File file, long offset, long length, WriteListener onWritten)
+  {
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+    this.onWritten = onWritten;
+  }
+
+  public File getFile()
+  {
+    return file;
+  }
+
+  public long getOffset()
+  {
+    return offset;
+  }
+
+  public long getLength()
+  {
+    return length;
+  }
+
+  void written(long bytes)
+  {
+    if(onWritten!=null)
+      onWritten.written(bytes);
+  }
+
+  public String toString()
+  {
+    return "FileRange {file="+file+", offset="+offset+", length="+length+"}";
+  }
+}
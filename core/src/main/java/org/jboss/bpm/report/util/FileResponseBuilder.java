@@ -0,0 +1,265 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Builds responses for files in the output directory.<p>
+ *
+ * Files that are served repeatedly, like cached pages and images, support
+ * conditional requests (<code>If-None-Match</code>, <code>If-Modified-Since</code>)
+ * and single byte ranges (<code>Range</code>, <code>If-Range</code>),
+ * so that clients can revalidate them and fetch large files incrementally.
+ * Compressible files can be served gzip encoded.<p>
+ *
+ * Output that is rendered into a workspace for a single request is served with {@link #buildOnce}.
+ * The next request renders a new file, so validators and ranges would never match.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class FileResponseBuilder
+{
+  private static final Log log = LogFactory.getLog(FileResponseBuilder.class);
+
+  public static Response build(File file, String contentType, Request request, HttpServletRequest httpRequest)
+  {
+    return build(file, contentType, false, request, httpRequest);
+  }
+
+  /**
+   * @param compressible serve the pre-compressed variant of the file,
+   * if the client accepts gzip encoding and didn't ask for a byte range
+   */
+  public static Response build(File file, String contentType, boolean compressible,
+                               Request request, HttpServletRequest httpRequest)
+  {
+    return build(file, contentType, compressible, request, httpRequest, null);
+  }
+
+  /**
+   * @param onWritten invoked once the entity has been written, or right away if there is none
+   */
+  public static Response build(File file, String contentType, boolean compressible,
+                               Request request, HttpServletRequest httpRequest, WriteListener onWritten)
+  {
+    File entity = file;
+    boolean compressed = false;
+    String rangeHeader = httpRequest.getHeader("Range");
+
+    if(compressible && null==rangeHeader && Compression.acceptsGzip(httpRequest))
+    {
+      try
+      {
+        entity = Compression.getCompressedVariant(file);
+        compressed = true;
+      }
+      catch (IOException e)
+      {
+        log.warn("Failed to compress " + file + ", sending it uncompressed", e);
+      }
+    }
+
+    long length = entity.length();
+    EntityTag etag = createEntityTag(entity);
+    Date lastModified = new Date((file.lastModified() / 1000) * 1000); // HTTP dates have second precision
+
+    // 304 or 412
+    Response.ResponseBuilder builder = request.evaluatePreconditions(lastModified, etag);
+    if(builder!=null)
+    {
+      written(onWritten);
+      if(compressible)
+        builder.header("Vary", "Accept-Encoding");
+      return builder.tag(etag).build();
+    }
+
+    long[] range = null;
+    if(rangeHeader!=null && isRangeValid(httpRequest.getHeader("If-Range"), etag, lastModified))
+    {
+      range = parseRange(rangeHeader, length);
+      if(range!=null && range.length==0)
+      {
+        written(onWritten);
+        return Response.status(416)
+            .header("Content-Range", "bytes */" + length)
+            .build();
+      }
+    }
+
+    if(range!=null)
+    {
+      long first = range[0];
+      long last = range[1];
+      builder = Response.status(206)
+          .entity(new FileRange(entity, first, last - first + 1, onWritten))
+          .header("Content-Range", "bytes " + first + "-" + last + "/" + length);
+    }
+    else if(onWritten!=null)
+    {
+      builder = Response.ok(new FileRange(entity, 0, length, onWritten));
+    }
+    else
+    {
+      builder = Response.ok(entity);
+    }
+
+    if(contentType!=null)
+      builder.type(contentType);
+
+    if(compressed)
+      builder.header("Content-Encoding", Compression.GZIP);
+
+    if(compressible)
+      builder.header("Vary", "Accept-Encoding");
+
+    return builder
+        .header("Accept-Ranges", "bytes")
+        .tag(etag)
+        .lastModified(lastModified)
+        .build();
+  }
+
+  /**
+   * Serve a file that is rendered for this request only, i.e. workspace output.
+   * It's not cacheable, ranges are ignored and compressible files are compressed on the fly.
+   *
+   * @param onWritten invoked once the entity has been written
+   */
+  public static Response buildOnce(File file, String contentType, boolean compressible,
+                                   HttpServletRequest httpRequest, WriteListener onWritten)
+  {
+    boolean compress = compressible && Compression.acceptsGzip(httpRequest);
+
+    Response.ResponseBuilder builder = Response.ok(new TransientFile(file, compress, onWritten))
+        .header("Cache-Control", "no-cache");
+    if(contentType!=null)
+      builder.type(contentType);
+    if(compress)
+      builder.header("Content-Encoding", Compression.GZIP);
+    else
+      builder.header("Content-Length", String.valueOf(file.length()));
+    if(compressible)
+      builder.header("Vary", "Accept-Encoding");
+    return builder.build();
+  }
+
+  private static void written(WriteListener onWritten)
+  {
+    if(onWritten!=null)
+      onWritten.written(0);
+  }
+
+  public static EntityTag createEntityTag(File file)
+  {
+    return new EntityTag(Long.toHexString(file.lastModified()) + "-" + Long.toHexString(file.length()));
+  }
+
+  /**
+   * A range request is only served if the representation didn't change
+   * since the client retrieved the first part.
+   */
+  private static boolean isRangeValid(String ifRange, EntityTag etag, Date lastModified)
+  {
+    if(null==ifRange)
+      return true;
+
+    if(ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+      return ifRange.equals("\"" + etag.getValue() + "\"");
+
+    return ifRange.equals(formatDate(lastModified));
+  }
+
+  public static String formatDate(Date date)
+  {
+    // RFC 1123, SimpleDateFormat isn't thread safe
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format.format(date);
+  }
+
+  /**
+   * Parse a single byte range.
+   *
+   * @return first and last byte position, an empty array if the range can't be satisfied,
+   * or null if the header should be ignored (i.e. multiple ranges, invalid syntax).
+   */
+  static long[] parseRange(String header, long length)
+  {
+    if(!header.startsWith("bytes=") || header.indexOf(',')!=-1)
+      return null;
+
+    String spec = header.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if(dash==-1)
+      return null;
+
+    try
+    {
+      String firstPart = spec.substring(0, dash).trim();
+      String lastPart = spec.substring(dash+1).trim();
+
+      long first;
+      long last;
+
+      if(firstPart.length()==0)
+      {
+        // suffix range: the last n bytes
+        if(lastPart.length()==0)
+          return null;
+        long suffix = Long.parseLong(lastPart);
+        if(suffix==0)
+          return new long[0];
+        first = Math.max(0, length - suffix);
+        last = length - 1;
+      }
+      else
+      {
+        first = Long.parseLong(firstPart);
+        last = lastPart.length()==0 ? length - 1 : Math.min(Long.parseLong(lastPart), length - 1);
+        if(last < first)
+          return first >= length ? new long[0] : null;
+      }
+
+      if(first >= length)
+        return new long[0];
+
+      return new long[] {first, last};
+    }
+    catch (NumberFormatException e)
+    {
+      return null;
+    }
+  }
+}
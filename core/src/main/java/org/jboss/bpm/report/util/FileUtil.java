@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class FileUtil
+{
+  /**
+   * Delete a file or a directory including it's contents.
+   *
+   * @return true if the file doesn't exist anymore
+   */
+  public static boolean delete(File file)
+  {
+    if(file.isDirectory())
+    {
+      File[] children = file.listFiles();
+      if(children!=null)
+      {
+        for(File child : children)
+          delete(child);
+      }
+    }
+    return file.delete() || !file.exists();
+  }
+
+  /**
+   * Size of a file or the accumulated size of a directory
+   */
+  public static long size(File file)
+  {
+    if(!file.isDirectory())
+      return file.length();
+
+    long size = 0;
+    File[] children = file.listFiles();
+    if(children!=null)
+    {
+      for(File child : children)
+        size += size(child);
+    }
+    return size;
+  }
+
+  public static void close(Closeable c)
+  {
+    if(c!=null)
+      try
+      {
+        c.close();
+      }
+      catch (IOException e)
+      {
+        //
+      }
+  }
+}
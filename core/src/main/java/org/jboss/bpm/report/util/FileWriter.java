@@ -33,35 +33,95 @@ import java.io.OutputStream;
 import java.io.IOException;
 import java.io.FileInputStream;
 import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
+ * Writes {@link java.io.File} and {@link FileRange} entities.
+ * The content is transferred through {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * The servlet output stream isn't a channel, so the data is still copied through a heap buffer,
+ * but only that of the channel adapter, without an intermediate copy loop.
+ *
  * @author Heiko.Braun <heiko.braun@jboss.com>
  */
 @Provider
-@Produces({"text/html", "image/*"})
+@Produces({"text/html", "application/pdf", "image/*"})
 public class FileWriter implements MessageBodyWriter
 {
 
    public boolean isWriteable(Class aClass, Type type, Annotation[] annotations, MediaType mediaType)
    {
-      return aClass.equals(java.io.File.class);
+      return aClass.equals(java.io.File.class) || aClass.equals(FileRange.class);
    }
 
    public long getSize(Object o, Class aClass, Type type, Annotation[] annotations, MediaType mediaType)
    {
+      if(o instanceof FileRange)
+         return ((FileRange)o).getLength();
       return ((File)o).length();
    }
 
    public void writeTo(Object o, Class aClass, Type type, Annotation[] annotations, MediaType mediaType, MultivaluedMap multivaluedMap, OutputStream outputStream) throws IOException, WebApplicationException
    {
-      FileInputStream fin = new FileInputStream((File)o);
-      int c;
-      while ((c = fin.read()) != -1)
+      if(!(o instanceof FileRange))
+      {
+         write(o, outputStream);
+         return;
+      }
+
+      // tell the range how much actually reached the client
+      CountingOutputStream counted = new CountingOutputStream(outputStream);
+      try
+      {
+         write(o, counted);
+      }
+      finally
+      {
+         ((FileRange)o).written(counted.getCount());
+      }
+   }
+
+   private void write(Object o, OutputStream outputStream) throws IOException
+   {
+      File file;
+      long offset;
+      long length;
+
+      if(o instanceof FileRange)
+      {
+         FileRange range = (FileRange)o;
+         file = range.getFile();
+         offset = range.getOffset();
+         length = range.getLength();
+      }
+      else
       {
-         outputStream.write(c);
+         file = (File)o;
+         offset = 0;
+         length = file.length();
       }
 
-      fin.close();
+      FileInputStream fin = new FileInputStream(file);
+      try
+      {
+         FileChannel source = fin.getChannel();
+         WritableByteChannel target = Channels.newChannel(outputStream);
 
+         long position = offset;
+         long end = offset + length;
+         while (position < end)
+         {
+            long transferred = source.transferTo(position, end - position, target);
+            if(transferred <= 0)
+               break; // file was truncated
+            position += transferred;
+         }
+         outputStream.flush();
+      }
+      finally
+      {
+         fin.close();
+      }
    }
 }
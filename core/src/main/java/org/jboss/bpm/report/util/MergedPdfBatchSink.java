@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfCopy;
+import com.lowagie.text.pdf.PdfReader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.BatchSink;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merges PDF batch results into a single document, in the order of the parameter sets.
+ * Results are appended as soon as all their predecessors have been written.
+ * Failed renders are skipped.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class MergedPdfBatchSink implements BatchSink
+{
+  private static final Log log = LogFactory.getLog(MergedPdfBatchSink.class);
+
+  private Document document;
+  private PdfCopy copy;
+  private boolean empty = true;
+
+  private int next = 0;
+  private Map<Integer, File> pending = new HashMap<Integer, File>();
+  private Map<Integer, Boolean> failed = new HashMap<Integer, Boolean>();
+
+  /**
+   * @param out the target stream. It's not closed.
+   */
+  public MergedPdfBatchSink(OutputStream out) throws IOException
+  {
+    try
+    {
+      this.document = new Document();
+      // closing the document would close the stream otherwise
+      this.copy = new PdfCopy(document, new FilterOutputStream(out)
+      {
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+          out.write(b, off, len);
+        }
+
+        public void close() throws IOException
+        {
+          flush();
+        }
+      });
+      document.open();
+    }
+    catch (DocumentException e)
+    {
+      throw new IOException("Failed to create PDF document: " + e.getMessage());
+    }
+  }
+
+  public void add(int index, File output) throws IOException
+  {
+    // the caller deletes the file when we return, so out of order results are merged right away
+    if(index!=next)
+    {
+      File copyOfOutput = new File(output.getPath() + ".pending");
+      if(!output.renameTo(copyOfOutput))
+        throw new IOException("Failed to keep " + output);
+      pending.put(index, copyOfOutput);
+      return;
+    }
+
+    append(output);
+    next++;
+    drain();
+  }
+
+  public void failed(int index, Throwable cause) throws IOException
+  {
+    log.warn("Skip failed batch result " + index, cause);
+    failed.put(index, Boolean.TRUE);
+    drain();
+  }
+
+  private void drain() throws IOException
+  {
+    while(true)
+    {
+      if(failed.remove(next)!=null)
+      {
+        next++;
+      }
+      else if(pending.containsKey(next))
+      {
+        File file = pending.remove(next);
+        try
+        {
+          append(file);
+        }
+        finally
+        {
+          FileUtil.delete(file);
+        }
+        next++;
+      }
+      else
+      {
+        break;
+      }
+    }
+  }
+
+  private void append(File pdf) throws IOException
+  {
+    PdfReader reader = new PdfReader(pdf.getPath());
+    try
+    {
+      for(int page=1; page<=reader.getNumberOfPages(); page++)
+        copy.addPage(copy.getImportedPage(reader, page));
+      empty = false;
+    }
+    catch (DocumentException e)
+    {
+      throw new IOException("Failed to merge " + pdf + ": " + e.getMessage());
+    }
+    finally
+    {
+      reader.close();
+    }
+  }
+
+  public void finish() throws IOException
+  {
+    if(!pending.isEmpty())
+      throw new IllegalStateException("Missing batch results before " + pending.keySet());
+
+    if(empty)
+      throw new IOException("No PDF result to merge");
+
+    document.close();
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A file that is served once, i.e. the output of a workspace.
+ * It's compressed while it's written, since a pre-compressed variant would never be reused.
+ *
+ * @see FileResponseBuilder#buildOnce
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class TransientFile implements StreamingOutput
+{
+  private File file;
+  private boolean compress;
+  private WriteListener onWritten;
+
+  /**
+   * @param onWritten invoked once the file has been written, or failed to be written
+   */
+  public TransientFile(File file, boolean compress, WriteListener onWritten)
+  {
+    this.file = file;
+    this.compress = compress;
+    this.onWritten = onWritten;
+  }
+
+  public File getFile()
+  {
+    return file;
+  }
+
+  public void write(OutputStream outputStream) throws IOException, WebApplicationException
+  {
+    FileInputStream in = null;
+    CountingOutputStream counted = new CountingOutputStream(outputStream);
+    try
+    {
+      in = new FileInputStream(file);
+      OutputStream out = compress ? new GZIPOutputStream(counted, 8192) : counted;
+      byte[] buffer = new byte[8192];
+      int n;
+      while((n = in.read(buffer)) != -1)
+        out.write(buffer, 0, n);
+
+      if(compress)
+        ((GZIPOutputStream)out).finish();
+      counted.flush();
+    }
+    finally
+    {
+      FileUtil.close(in);
+      if(onWritten!=null)
+        onWritten.written(counted.getCount());
+    }
+  }
+
+  public String toString()
+  {
+    return "TransientFile {file="+file+", compress="+compress+"}";
+  }
+}
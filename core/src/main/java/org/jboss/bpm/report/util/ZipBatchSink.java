@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.BatchSink;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes batch results as ZIP entries (<code>report-1.pdf, report-2.pdf, ...</code>),
+ * as soon as they complete. Failures are written as <code>report-n.error.txt</code>,
+ * which holds the error message. The stack trace is only logged.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class ZipBatchSink implements BatchSink
+{
+  private static final Log log = LogFactory.getLog(ZipBatchSink.class);
+
+  private ZipOutputStream zip;
+  private WritableByteChannel channel;
+  private String baseName;
+  private String extension;
+
+  /**
+   * @param out the target stream. It's not closed.
+   * @param baseName entry names are derived from it
+   * @param extension file extension of the entries, i.e. ".pdf"
+   */
+  public ZipBatchSink(OutputStream out, String baseName, String extension)
+  {
+    this.zip = new ZipOutputStream(out);
+    this.channel = Channels.newChannel(zip);
+    this.baseName = baseName;
+    this.extension = extension;
+  }
+
+  public void add(int index, File output) throws IOException
+  {
+    zip.putNextEntry(new ZipEntry(baseName + "-" + (index+1) + extension));
+
+    FileInputStream in = new FileInputStream(output);
+    try
+    {
+      FileChannel source = in.getChannel();
+      long position = 0;
+      long size = source.size();
+      while(position < size)
+        position += source.transferTo(position, size - position, channel);
+    }
+    finally
+    {
+      in.close();
+    }
+
+    zip.closeEntry();
+    zip.flush();
+  }
+
+  public void failed(int index, Throwable cause) throws IOException
+  {
+    log.warn("Failed batch result " + index, cause);
+
+    zip.putNextEntry(new ZipEntry(baseName + "-" + (index+1) + ".error.txt"));
+    String message = cause.getMessage()!=null ? cause.getMessage() : cause.getClass().getName();
+    zip.write(message.getBytes("UTF-8"));
+
+    zip.closeEntry();
+    zip.flush();
+  }
+
+  public void finish() throws IOException
+  {
+    zip.finish();
+    zip.flush();
+  }
+}
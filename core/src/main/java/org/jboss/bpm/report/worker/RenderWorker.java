@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.worker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.birt.core.framework.Platform;
+import org.eclipse.birt.report.engine.api.*;
+import org.jboss.bpm.report.BirtEngineFactory;
+import org.jboss.bpm.report.IntegrationConfig;
+import org.jboss.bpm.report.util.BirtUtil;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Main class of a render worker process, see {@link WorkerPool}.<p>
+ *
+ * Reads {@link WorkerRequest}s from stdin and answers each one with a single line on stdout:
+ * <pre>
+ * OK|used heap|max heap
+ * ERROR|message|used heap|max heap
+ * </pre>
+ * Anything else the engine prints goes to stderr.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class RenderWorker
+{
+  public static final String READY = "READY";
+  public static final String QUIT = "QUIT";
+
+  private static final Log log = LogFactory.getLog(RenderWorker.class);
+
+  private IReportEngine engine;
+  private IntegrationConfig iConfig;
+
+  /* report name -> parsed design and the catalogue version it was parsed for */
+  private Map<String, IReportRunnable> designs = new HashMap<String, IReportRunnable>();
+  private Map<String, String> versions = new HashMap<String, String>();
+
+  public RenderWorker(IntegrationConfig iConfig)
+  {
+    this.iConfig = iConfig;
+  }
+
+  /**
+   * @param args BIRT home and report directory
+   */
+  public static void main(String[] args) throws Exception
+  {
+    // stdout is reserved for responses
+    PrintStream channel = new PrintStream(new FileOutputStream(FileDescriptor.out), false, "UTF-8");
+    System.setOut(System.err);
+
+    IntegrationConfig iConfig = new IntegrationConfig();
+    iConfig.setBirtHome(args[0]);
+    iConfig.setReportDir(args[1]);
+
+    RenderWorker worker = new RenderWorker(iConfig);
+    worker.engine = BirtEngineFactory.newInstance(iConfig);
+
+    channel.println(READY);
+    channel.flush();
+
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    try
+    {
+      String line;
+      while((line = in.readLine()) != null && !line.equals(QUIT))
+      {
+        boolean exit = false;
+        try
+        {
+          worker.execute(WorkerRequest.decode(line));
+          channel.println("OK|" + usedHeap() + "|" + Runtime.getRuntime().maxMemory());
+        }
+        catch (Throwable t)
+        {
+          log.error("Failed to execute worker request", t);
+          String message = t.getMessage()!=null ? t.getMessage() : t.getClass().getName();
+          channel.println("ERROR|" + message.replace('\n', ' ').replace('|', ' ')
+              + "|" + usedHeap() + "|" + Runtime.getRuntime().maxMemory());
+
+          // the heap can't be trusted anymore
+          exit = t instanceof OutOfMemoryError;
+        }
+        channel.flush();
+
+        if(exit)
+          break;
+      }
+    }
+    finally
+    {
+      worker.engine.destroy();
+      Platform.shutdown();
+    }
+    System.exit(0);
+  }
+
+  private static long usedHeap()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private void execute(WorkerRequest request) throws EngineException
+  {
+    IReportRunnable design = openCached(request.getReportName(), request.getDesignVersion());
+
+    switch(request.getType())
+    {
+      case RUN:
+        IRunTask runTask = engine.createRunTask(design);
+        try
+        {
+          runTask.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, RenderWorker.class.getClassLoader());
+          runTask.setParameterValues(request.getParameters());
+          runTask.run(request.getOutputFile());
+        }
+        finally
+        {
+          runTask.close();
+        }
+        break;
+      case RUN_AND_RENDER:
+        IRunAndRenderTask task = engine.createRunAndRenderTask(design);
+        try
+        {
+          task.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, RenderWorker.class.getClassLoader());
+          task.setParameterValues(request.getParameters());
+
+          IRenderOption options = BirtUtil.createRenderOption(
+              request.getFormat(), false, request.getImageDirectory(), request.getImageBaseUrl()
+          );
+          options.setOutputFileName(request.getOutputFile());
+          task.setRenderOption(options);
+          task.run();
+        }
+        finally
+        {
+          task.close();
+        }
+        break;
+    }
+  }
+
+  /**
+   * Designs are re-parsed when the caller's catalogue moved to another version,
+   * so that workers pick up changes together with the server rather than
+   * on every modification of the file.
+   */
+  private IReportRunnable openCached(String reportName, String version) throws EngineException
+  {
+    IReportRunnable design = designs.get(reportName);
+    if(null==design || !version.equals(versions.get(reportName)))
+    {
+      File designFile = new File(iConfig.getReportDir() + reportName);
+      design = engine.openReportDesign(designFile.getAbsolutePath());
+      designs.put(reportName, design);
+      versions.put(reportName, version);
+    }
+    return design;
+  }
+}
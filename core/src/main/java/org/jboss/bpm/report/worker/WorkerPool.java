@@ -0,0 +1,380 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.worker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.bpm.report.IntegrationConfig;
+import org.jboss.bpm.report.RenderControl;
+import org.jboss.bpm.report.util.FileUtil;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of local worker JVMs that run reports out of process, so that
+ * a runaway report can't exhaust the heap of the server.<p>
+ *
+ * Requests are passed over the stdin/stdout pipes of the worker process, see {@link RenderWorker}.
+ * A worker is recycled after a number of renders, when it's heap usage grows too large
+ * or when it dies. Replacements are started in the background, while the remaining
+ * workers keep serving requests.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class WorkerPool
+{
+  private static final Log log = LogFactory.getLog(WorkerPool.class);
+
+  /* recycle a worker when it uses more of it's heap after a render */
+  private static final double MAX_HEAP_USAGE = 0.75;
+
+  /* delay before starting a worker again, when it failed to start */
+  private static final long RESTART_DELAY_SECONDS = 10;
+
+  /* give up waiting for a worker, i.e. when they keep failing to start */
+  private static final long ACQUIRE_TIMEOUT_SECONDS = 60;
+
+  private IntegrationConfig iConfig;
+  private BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+  private List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+  private ScheduledExecutorService starter;
+  private AtomicInteger count = new AtomicInteger();
+  private volatile boolean running;
+
+  public WorkerPool(IntegrationConfig iConfig)
+  {
+    this.iConfig = iConfig;
+  }
+
+  public void start()
+  {
+    running = true;
+    starter = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable r)
+          {
+            Thread t = new Thread(r, "BirtService-WorkerStarter");
+            t.setDaemon(true);
+            return t;
+          }
+        }
+    );
+
+    for(int i=0; i<iConfig.getWorkerProcesses(); i++)
+      replace(0);
+
+    log.info("Starting " + iConfig.getWorkerProcesses() + " render worker processes");
+  }
+
+  public void stop()
+  {
+    running = false;
+    if(starter!=null)
+      starter.shutdownNow();
+
+    for(Worker worker : workers)
+      worker.quit();
+    workers.clear();
+    idle.clear();
+  }
+
+  /**
+   * Execute a request on the next idle worker. Blocks until a worker is available,
+   * the control is cancelled or no worker became available for a while.
+   *
+   * @param control cancelling it kills the worker, may be null
+   * @throws java.util.concurrent.CancellationException if the control was cancelled while waiting
+   * @throws RejectedExecutionException if no worker became available in time
+   */
+  public void execute(WorkerRequest request, RenderControl control) throws InterruptedException
+  {
+    long giveUp = System.currentTimeMillis() + ACQUIRE_TIMEOUT_SECONDS * 1000;
+    Worker worker = null;
+    while(null==worker)
+    {
+      if(!running)
+        throw new IllegalStateException("Worker pool has been stopped");
+      if(control!=null)
+        control.check();
+      if(System.currentTimeMillis() > giveUp)
+        throw new RejectedExecutionException("No render worker available for " + ACQUIRE_TIMEOUT_SECONDS + " seconds");
+      worker = idle.poll(1, TimeUnit.SECONDS);
+    }
+
+    if(control!=null)
+    {
+      // the only way to stop a render in another process
+      final Worker target = worker;
+      control.attach(
+          new RenderControl.Canceller()
+          {
+            public void cancel(String reason)
+            {
+              target.kill();
+            }
+          }
+      );
+    }
+
+    boolean healthy = false;
+    try
+    {
+      String response = worker.call(request.encode());
+      healthy = worker.renders < iConfig.getWorkerMaxRenders() && worker.heapUsage < MAX_HEAP_USAGE;
+
+      if(response.startsWith("ERROR|"))
+        throw new RuntimeException("Failed to render report: " + response.substring(6));
+    }
+    catch (IOException e)
+    {
+      if(control!=null)
+        control.check();
+      throw new RuntimeException("Render worker " + worker + " died", e);
+    }
+    finally
+    {
+      // a cancelled worker may have been killed already
+      if(control!=null)
+      {
+        control.detach();
+        if(control.isCancelled())
+          healthy = false;
+      }
+
+      if(healthy && running)
+      {
+        idle.offer(worker);
+      }
+      else
+      {
+        log.debug("Recycle render worker " + worker + " after " + worker.renders + " renders");
+        retire(worker);
+        replace(0);
+      }
+    }
+  }
+
+  private void retire(Worker worker)
+  {
+    workers.remove(worker);
+    worker.quit();
+  }
+
+  /* start a new worker in the background */
+  private void replace(long delay)
+  {
+    if(!running)
+      return;
+
+    starter.schedule(
+        new Runnable()
+        {
+          public void run()
+          {
+            Worker worker = new Worker("worker-" + count.incrementAndGet());
+            try
+            {
+              worker.start();
+              workers.add(worker);
+              idle.offer(worker);
+              log.debug("Started render worker " + worker);
+            }
+            catch (Exception e)
+            {
+              log.error("Failed to start render worker " + worker, e);
+              worker.quit();
+              replace(RESTART_DELAY_SECONDS);
+            }
+          }
+        }, delay, TimeUnit.SECONDS
+    );
+  }
+
+  private class Worker
+  {
+    private String name;
+    private Process process;
+    private Writer requests;
+    private BufferedReader responses;
+
+    int renders;
+    double heapUsage;
+
+    Worker(String name)
+    {
+      this.name = name;
+    }
+
+    void start() throws IOException
+    {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+      StringTokenizer jvmArgs = new StringTokenizer(iConfig.getWorkerJvmArgs());
+      while(jvmArgs.hasMoreTokens())
+        command.add(jvmArgs.nextToken());
+      command.add("-cp");
+      command.add(iConfig.getWorkerClasspath());
+      command.add(RenderWorker.class.getName());
+      command.add(iConfig.getBirtHome());
+      command.add(iConfig.getReportDir());
+
+      process = new ProcessBuilder(command).start();
+      requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+      responses = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+      drain(process.getErrorStream());
+
+      String line;
+      while((line = responses.readLine()) != null)
+      {
+        if(line.equals(RenderWorker.READY))
+          return;
+      }
+      throw new IOException("Render worker exited during startup");
+    }
+
+    String call(String request) throws IOException
+    {
+      requests.write(request);
+      requests.write("\n");
+      requests.flush();
+
+      String response = responses.readLine();
+      if(null==response)
+        throw new IOException("Render worker exited with " + exitValue());
+
+      renders++;
+
+      // ...|used heap|max heap
+      String[] fields = response.split("\\|");
+      if(fields.length>=3)
+      {
+        try
+        {
+          heapUsage = Double.parseDouble(fields[fields.length-2]) / Double.parseDouble(fields[fields.length-1]);
+        }
+        catch (NumberFormatException e)
+        {
+          log.debug("Ignore invalid heap usage: " + response);
+        }
+      }
+      return response;
+    }
+
+    void quit()
+    {
+      if(null==process)
+        return;
+
+      try
+      {
+        requests.write(RenderWorker.QUIT + "\n");
+        requests.flush();
+      }
+      catch (IOException e)
+      {
+        // already gone
+      }
+      finally
+      {
+        FileUtil.close(requests);
+      }
+
+      // don't block the caller, but make sure it goes away
+      final Process p = process;
+      Thread reaper = new Thread("BirtService-" + name + "-Reaper")
+      {
+        public void run()
+        {
+          try
+          {
+            Thread.sleep(30*1000);
+          }
+          catch (InterruptedException e)
+          {
+            // destroy now
+          }
+          p.destroy();
+        }
+      };
+      reaper.setDaemon(true);
+      reaper.start();
+    }
+
+    void kill()
+    {
+      log.debug("Kill render worker " + name);
+      process.destroy();
+    }
+
+    private String exitValue()
+    {
+      try
+      {
+        return String.valueOf(process.exitValue());
+      }
+      catch (IllegalThreadStateException e)
+      {
+        return "<running>";
+      }
+    }
+
+    /* log the worker output */
+    private void drain(final InputStream stream)
+    {
+      Thread t = new Thread("BirtService-" + name + "-Output")
+      {
+        public void run()
+        {
+          BufferedReader in = null;
+          try
+          {
+            in = new BufferedReader(new InputStreamReader(stream));
+            String line;
+            while((line = in.readLine()) != null)
+              log.debug("[" + name + "] " + line);
+          }
+          catch (IOException e)
+          {
+            // process has ended
+          }
+          finally
+          {
+            FileUtil.close(in);
+          }
+        }
+      };
+      t.setDaemon(true);
+      t.start();
+    }
+
+    public String toString()
+    {
+      return name;
+    }
+  }
+}
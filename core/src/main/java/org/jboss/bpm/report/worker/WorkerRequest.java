@@ -0,0 +1,230 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.worker;
+
+import org.jboss.bpm.report.RenderMetaData;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A render request handed to a worker process. Requests are sent as a single line:
+ * <pre>
+ * type|report|design version|format|output file|image dir|image base url|params
+ * </pre>
+ * Fields are URL encoded. The design version is the one the caller keys it's documents on,
+ * workers re-parse a design only when it changes. Parameter values carry their type,
+ * because they have already been unmarshalled by the caller.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class WorkerRequest
+{
+  private static final String ENCODING = "UTF-8";
+
+  public enum Type
+  {
+    /* run a report into a report document */
+    RUN,
+    /* run and render a report into an output file */
+    RUN_AND_RENDER
+  }
+
+  private Type type;
+  private String reportName;
+  private String designVersion;
+  private RenderMetaData.Format format = RenderMetaData.Format.HTML;
+  private String outputFile;
+  private String imageDirectory;
+  private String imageBaseUrl;
+  private Map<String, Object> parameters = new HashMap<String, Object>();
+
+  public WorkerRequest(
+      Type type, String reportName, String designVersion,
+      String outputFile, Map<String, Object> parameters)
+  {
+    this.type = type;
+    this.reportName = reportName;
+    this.designVersion = designVersion;
+    this.outputFile = outputFile;
+    this.parameters.putAll(parameters);
+  }
+
+  public Type getType()
+  {
+    return type;
+  }
+
+  public String getReportName()
+  {
+    return reportName;
+  }
+
+  public String getDesignVersion()
+  {
+    return designVersion;
+  }
+
+  public RenderMetaData.Format getFormat()
+  {
+    return format;
+  }
+
+  public void setFormat(RenderMetaData.Format format)
+  {
+    this.format = format;
+  }
+
+  public String getOutputFile()
+  {
+    return outputFile;
+  }
+
+  public String getImageDirectory()
+  {
+    return imageDirectory;
+  }
+
+  public void setImageDirectory(String imageDirectory)
+  {
+    this.imageDirectory = imageDirectory;
+  }
+
+  public String getImageBaseUrl()
+  {
+    return imageBaseUrl;
+  }
+
+  public void setImageBaseUrl(String imageBaseUrl)
+  {
+    this.imageBaseUrl = imageBaseUrl;
+  }
+
+  public Map<String, Object> getParameters()
+  {
+    return parameters;
+  }
+
+  public String encode()
+  {
+    try
+    {
+      StringBuffer params = new StringBuffer();
+      for(String name : parameters.keySet())
+      {
+        if(params.length()>0)
+          params.append("&");
+        params.append(URLEncoder.encode(name, ENCODING)).append("=");
+        params.append(URLEncoder.encode(encodeValue(parameters.get(name)), ENCODING));
+      }
+
+      StringBuffer sb = new StringBuffer();
+      sb.append(type).append("|");
+      sb.append(URLEncoder.encode(reportName, ENCODING)).append("|");
+      sb.append(URLEncoder.encode(designVersion, ENCODING)).append("|");
+      sb.append(format).append("|");
+      sb.append(URLEncoder.encode(outputFile, ENCODING)).append("|");
+      sb.append(imageDirectory!=null ? URLEncoder.encode(imageDirectory, ENCODING) : "").append("|");
+      sb.append(imageBaseUrl!=null ? URLEncoder.encode(imageBaseUrl, ENCODING) : "").append("|");
+      sb.append(URLEncoder.encode(params.toString(), ENCODING));
+      return sb.toString();
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static WorkerRequest decode(String line)
+  {
+    try
+    {
+      String[] fields = line.split("\\|", -1);
+      if(fields.length!=8)
+        throw new IllegalArgumentException("Invalid request: " + line);
+
+      Map<String, Object> parameters = new HashMap<String, Object>();
+      String params = URLDecoder.decode(fields[7], ENCODING);
+      if(params.length()>0)
+      {
+        for(String tuple : params.split("&"))
+        {
+          String[] nameValue = tuple.split("=", -1);
+          parameters.put(
+              URLDecoder.decode(nameValue[0], ENCODING), decodeValue(URLDecoder.decode(nameValue[1], ENCODING))
+          );
+        }
+      }
+
+      WorkerRequest request = new WorkerRequest(
+          Type.valueOf(fields[0]), URLDecoder.decode(fields[1], ENCODING),
+          URLDecoder.decode(fields[2], ENCODING), URLDecoder.decode(fields[4], ENCODING), parameters
+      );
+      request.setFormat(RenderMetaData.Format.valueOf(fields[3]));
+      if(fields[5].length()>0)
+        request.setImageDirectory(URLDecoder.decode(fields[5], ENCODING));
+      if(fields[6].length()>0)
+        request.setImageBaseUrl(URLDecoder.decode(fields[6], ENCODING));
+      return request;
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /* the types produced by BirtService when unmarshalling parameters */
+  private static String encodeValue(Object value)
+  {
+    if(null==value)
+      return "0:";
+    else if(value instanceof java.sql.Date)
+      return "D:" + ((java.sql.Date)value).getTime();
+    else if(value instanceof Long)
+      return "N:" + value;
+    else if(value instanceof Boolean)
+      return "B:" + value;
+    else
+      return "S:" + value;
+  }
+
+  private static Object decodeValue(String value)
+  {
+    String v = value.substring(2);
+    switch(value.charAt(0))
+    {
+      case '0':
+        return null;
+      case 'D':
+        return new java.sql.Date(Long.parseLong(v));
+      case 'N':
+        return Long.valueOf(v);
+      case 'B':
+        return Boolean.valueOf(v);
+      default:
+        return v;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.jfr;
+
+import org.jboss.bpm.report.metrics.RenderListener;
+import org.jboss.bpm.report.metrics.RenderMetrics;
+
+/**
+ * Emits a flight recorder event for each render phase.
+ * Events are only created while a recording has them enabled.
+ *
+ * @see org.jboss.bpm.report.IntegrationConfig#getRenderListener()
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class JfrRenderListener implements RenderListener
+{
+  public Span begin(RenderMetrics.Phase phase, String reportName, String format, int parameterHash)
+  {
+    ReportEvent event = createEvent(phase);
+    if(null==event || !event.isEnabled())
+      return null;
+
+    event.reportName = reportName;
+    event.format = format;
+    event.parameterHash = parameterHash;
+    event.begin();
+    return event;
+  }
+
+  private static ReportEvent createEvent(RenderMetrics.Phase phase)
+  {
+    switch(phase)
+    {
+      case OPEN:
+        return new OpenEvent();
+      case PARAMETERS:
+        return new ParametersEvent();
+      case RUN:
+        return new RunEvent();
+      case RENDER:
+        return new RenderEvent();
+      case SERVE:
+        return new ServeEvent();
+      default:
+        // the queue wait spans threads
+        return null;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import org.jboss.bpm.report.metrics.RenderListener;
+
+/**
+ * Common fields of the render phase events.
+ * An event is committed when the phase completes.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+@Category({"JBoss BPM", "Report Server"})
+@StackTrace(false)
+public abstract class ReportEvent extends Event implements RenderListener.Span
+{
+  @Label("Report")
+  String reportName;
+
+  @Label("Format")
+  String format;
+
+  @Label("Parameter Hash")
+  @Description("Hash of the render parameters, renders with equal parameters have the same hash")
+  int parameterHash;
+
+  @Label("Bytes")
+  @Description("Size of the design, document or output, -1 if unknown")
+  @DataAmount
+  long bytes;
+
+  @Label("Pages")
+  @Description("Number of pages, -1 if unknown")
+  long pages;
+
+  public void complete(long bytes, long pages)
+  {
+    this.bytes = bytes;
+    this.pages = pages;
+    commit();
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.loadtest;
+
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.webapp.WebAppContext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts the report server in an embedded Jetty and drives it
+ * through the scenarios of a load test configuration:
+ * <pre>
+ * java -Dorg.jbpm.report.engine.dir=/path/to/birt org.jboss.bpm.report.loadtest.LoadTest
+ * </pre>
+ *
+ * The engine directory needs a BIRT runtime in <code>ReportEngine</code>, like a server install.
+ * It's not written to: reports and output live in a scratch directory that is removed afterwards.
+ * The load test report reads from the Classic Models sample database that is part of
+ * the BIRT runtime, so no external database is needed.<p>
+ *
+ * POST renders come in two kinds, reported separately. <code>post-render</code> sets the
+ * parameter named by <code>unique</code> to a new value each time, so the report is actually run.
+ * <code>post-render-cached</code> repeats the parameters of an earlier render,
+ * which is served from the document cache.<p>
+ *
+ * For each scenario, throughput, latency percentiles and errors are reported per operation,
+ * along with the peak heap usage. Server and clients share the JVM, so the heap
+ * includes the client side, which is small in comparison.
+ *
+ * @see Scenario
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class LoadTest
+{
+  private static final String CONTEXT = "/report-server";
+
+  private Properties config;
+  private String reportName;
+  private ReportClient client;
+  private Map<String, String[]> parameterValues = new HashMap<String, String[]>();
+  private String uniqueParameter;
+  private AtomicLong uniqueValues = new AtomicLong();
+
+  /* parameters of earlier renders, to be rendered again */
+  private List<Map<String,String>> rendered = new CopyOnWriteArrayList<Map<String,String>>();
+
+  /* shared by all clients: documents to view and images to fetch */
+  private List<String> documents = new CopyOnWriteArrayList<String>();
+  private Set<String> images = Collections.synchronizedSet(new LinkedHashSet<String>());
+  private List<String> imageList = new CopyOnWriteArrayList<String>();
+
+  private AtomicLong peakHeap = new AtomicLong();
+
+  public LoadTest(Properties config, String baseUrl)
+  {
+    this.config = config;
+    this.reportName = config.getProperty("report", "customers.rptdesign");
+    this.client = new ReportClient(baseUrl);
+    this.uniqueParameter = config.getProperty("unique");
+
+    for(Object k : config.keySet())
+    {
+      String key = (String)k;
+      if(key.startsWith("param."))
+        parameterValues.put(key.substring("param.".length()), config.getProperty(key).split(","));
+    }
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    Properties config = loadConfig();
+
+    String engineDir = System.getProperty("org.jbpm.report.engine.dir");
+    if(null==engineDir || !new File(engineDir, "ReportEngine").exists())
+      throw new IllegalStateException("Please point -Dorg.jbpm.report.engine.dir to a directory with a BIRT ReportEngine");
+
+    // don't touch the reports and documents of the engine dir
+    File scratch = createScratchDir();
+    File reportDir = new File(scratch, "reports");
+    reportDir.mkdirs();
+    installReport(new File(engineDir), reportDir, config.getProperty("report", "customers.rptdesign"));
+    System.setProperty("org.jbpm.report.report.dir", reportDir.getAbsolutePath());
+    System.setProperty("org.jbpm.report.output.dir", new File(scratch, "output").getAbsolutePath());
+
+    int port = Integer.getInteger("loadtest.port", 8090);
+    Server server = new Server(port);
+    WebAppContext webapp = new WebAppContext(
+        System.getProperty("loadtest.webapp", "../server/src/main/webapp"), CONTEXT
+    );
+    webapp.setParentLoaderPriority(true);
+    server.setHandler(webapp);
+    server.start();
+
+    List<ScenarioResult> results = new ArrayList<ScenarioResult>();
+    try
+    {
+      LoadTest test = new LoadTest(config, "http://localhost:" + port + CONTEXT + "/rs/report");
+      test.awaitServer(5 * 60);
+      test.prime();
+
+      for(String name : config.getProperty("scenarios").split(","))
+      {
+        ScenarioResult result = test.run(Scenario.load(name.trim(), config));
+        result.print(System.out);
+        results.add(result);
+      }
+    }
+    finally
+    {
+      server.stop();
+      delete(scratch);
+    }
+
+    System.out.println();
+    System.out.println("Summary");
+    for(ScenarioResult result : results)
+      result.print(System.out);
+
+    // the report engine leaves threads behind
+    System.exit(0);
+  }
+
+  private static Properties loadConfig() throws IOException
+  {
+    Properties config = new Properties();
+    String file = System.getProperty("loadtest.config");
+    InputStream in = file!=null && file.length()>0 ?
+        new FileInputStream(file) : LoadTest.class.getResourceAsStream("/loadtest.properties");
+    try
+    {
+      config.load(in);
+    }
+    finally
+    {
+      in.close();
+    }
+    return config;
+  }
+
+  private static File createScratchDir() throws IOException
+  {
+    File scratch = File.createTempFile("loadtest", "");
+    if(!scratch.delete() || !scratch.mkdirs())
+      throw new IOException("Failed to create scratch directory " + scratch);
+    return scratch;
+  }
+
+  /* the bundled report, or a copy of the one in the engine dir */
+  private static void installReport(File engineDir, File reportDir, String reportName) throws IOException
+  {
+    InputStream in = LoadTest.class.getResourceAsStream("/" + reportName);
+    if(null==in)
+      in = new FileInputStream(new File(engineDir, reportName));
+
+    OutputStream out = new FileOutputStream(new File(reportDir, reportName));
+    try
+    {
+      byte[] buffer = new byte[8192];
+      int n;
+      while((n = in.read(buffer)) != -1)
+        out.write(buffer, 0, n);
+    }
+    finally
+    {
+      in.close();
+      out.close();
+    }
+  }
+
+  private static void delete(File file)
+  {
+    File[] children = file.listFiles();
+    if(children!=null)
+    {
+      for(File child : children)
+        delete(child);
+    }
+    file.delete();
+  }
+
+  /* the report service is created in the background */
+  private void awaitServer(int seconds) throws Exception
+  {
+    long end = System.currentTimeMillis() + seconds * 1000L;
+    while(System.currentTimeMillis() < end)
+    {
+      try
+      {
+        if(client.config())
+          return;
+      }
+      catch (IOException e)
+      {
+        // not yet listening
+      }
+      Thread.sleep(1000);
+    }
+    throw new IllegalStateException("Report server didn't come up within " + seconds + " seconds");
+  }
+
+  /* a document and its images, so that every operation has something to work on */
+  private void prime() throws IOException
+  {
+    Map<String,String> parameters = newParameters(new Random(0));
+    String documentId = client.render(reportName, parameters);
+    if(null==documentId)
+      throw new IllegalStateException("Failed to render " + reportName);
+    documents.add(documentId);
+    rendered.add(parameters);
+
+    List<String> found = new ArrayList<String>();
+    if(!client.view(reportName, documentId, found))
+      throw new IllegalStateException("Failed to view " + reportName);
+    addImages(found);
+    if(imageList.isEmpty())
+      System.out.println("WARN: " + reportName + " doesn't contain images, image requests will fail");
+  }
+
+  public ScenarioResult run(final Scenario scenario) throws InterruptedException
+  {
+    System.out.println("Running " + scenario);
+
+    final ScenarioResult result = new ScenarioResult(scenario);
+    final long measureFrom = System.currentTimeMillis() + scenario.getRampup() * 1000;
+    final long end = measureFrom + scenario.getDuration() * 1000;
+
+    ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor();
+    heapSampler.scheduleAtFixedRate(
+        new Runnable()
+        {
+          public void run()
+          {
+            if(System.currentTimeMillis() < measureFrom)
+              return;
+
+            long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            long peak;
+            while(used > (peak = peakHeap.get()) && !peakHeap.compareAndSet(peak, used))
+            {
+              // retry
+            }
+          }
+        }, 0, 100, TimeUnit.MILLISECONDS
+    );
+    peakHeap.set(0);
+
+    ExecutorService clients = Executors.newFixedThreadPool(scenario.getConcurrency());
+    for(int i=0; i<scenario.getConcurrency(); i++)
+    {
+      // reproducible request sequences
+      final Random random = new Random(i);
+      clients.execute(
+          new Runnable()
+          {
+            public void run()
+            {
+              while(System.currentTimeMillis() < end)
+              {
+                Operation op = scenario.pick(random);
+                long start = System.nanoTime();
+                boolean success;
+                try
+                {
+                  success = perform(op, random);
+                }
+                catch (IOException e)
+                {
+                  success = false;
+                }
+
+                if(System.currentTimeMillis() >= measureFrom)
+                  result.record(op, System.nanoTime() - start, success);
+              }
+            }
+          }
+      );
+    }
+
+    clients.shutdown();
+    clients.awaitTermination(scenario.getRampup() + scenario.getDuration() + 15 * 60, TimeUnit.SECONDS);
+    heapSampler.shutdownNow();
+
+    result.finish(Math.max(1, System.currentTimeMillis() - measureFrom), peakHeap.get());
+    return result;
+  }
+
+  private boolean perform(Operation op, Random random) throws IOException
+  {
+    switch(op)
+    {
+      case POST_RENDER:
+        Map<String,String> parameters = newParameters(random);
+        String documentId = client.render(reportName, parameters);
+        if(documentId!=null)
+          addDocument(documentId, parameters);
+        return documentId!=null;
+
+      case POST_RENDER_CACHED:
+        return client.render(reportName, rendered.get(random.nextInt(rendered.size())))!=null;
+
+      case GET_RENDER:
+        List<String> found = new ArrayList<String>();
+        boolean success = client.view(reportName, documents.get(random.nextInt(documents.size())), found);
+        addImages(found);
+        return success;
+
+      case CONFIG:
+        return client.config();
+
+      case IMAGE:
+        if(imageList.isEmpty())
+          return false;
+        return client.get(imageList.get(random.nextInt(imageList.size())));
+
+      default:
+        throw new IllegalArgumentException("Unknown operation " + op);
+    }
+  }
+
+  /* random values, plus a unique one that makes the render miss the document cache */
+  private Map<String,String> newParameters(Random random)
+  {
+    Map<String,String> params = new HashMap<String,String>();
+    for(Map.Entry<String, String[]> entry : parameterValues.entrySet())
+    {
+      String[] values = entry.getValue();
+      params.put(entry.getKey(), values[random.nextInt(values.length)].trim());
+    }
+    if(uniqueParameter!=null)
+      params.put(uniqueParameter, String.valueOf(uniqueValues.incrementAndGet()));
+    return params;
+  }
+
+  /* keeps a bounded set of documents to view and parameters to render again */
+  private void addDocument(String documentId, Map<String,String> parameters)
+  {
+    if(documents.size() < 1000 && !documents.contains(documentId))
+    {
+      documents.add(documentId);
+      rendered.add(parameters);
+    }
+  }
+
+  /* keeps a bounded set of image urls */
+  private void addImages(Collection<String> found)
+  {
+    for(String url : found)
+    {
+      if(images.size() < 1000 && images.add(url))
+        imageList.add(url);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.loadtest;
+
+/**
+ * The kinds of requests a load test client issues.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public enum Operation
+{
+  /* POST render/{fileName} with new parameters, runs the report into a document */
+  POST_RENDER("post-render"),
+  /* POST render/{fileName} with the parameters of an earlier render, served from the document cache */
+  POST_RENDER_CACHED("post-render-cached"),
+  /* GET render/{fileName}?document=, views a rendered document */
+  GET_RENDER("get-render"),
+  /* GET config, the report catalogue */
+  CONFIG("config"),
+  /* GET view/image/..., images referenced from viewed documents */
+  IMAGE("image");
+
+  private String key;
+
+  Operation(String key)
+  {
+    this.key = key;
+  }
+
+  public String getKey()
+  {
+    return key;
+  }
+
+  public static Operation forKey(String key)
+  {
+    for(Operation op : values())
+    {
+      if(op.key.equals(key))
+        return op;
+    }
+    throw new IllegalArgumentException("Unknown operation: " + key);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.loadtest;
+
+import org.jboss.bpm.report.ReportFacade;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Issues requests against the report REST API.
+ * Connections are kept alive between requests of the same thread.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class ReportClient
+{
+  private static final Pattern IMAGE_URL = Pattern.compile("src=\"([^\"]*/view/image/[^\"]+)\"");
+
+  private String baseUrl;
+
+  /**
+   * @param baseUrl i.e. http://localhost:8090/report-server/rs/report
+   */
+  public ReportClient(String baseUrl)
+  {
+    this.baseUrl = baseUrl;
+  }
+
+  /**
+   * Render a report into a document.
+   *
+   * @return the document id, or null if the render failed
+   */
+  public String render(String reportName, Map<String,String> parameters) throws IOException
+  {
+    StringBuilder body = new StringBuilder();
+    for(Map.Entry<String,String> param : parameters.entrySet())
+      body.append(param.getKey()).append('=').append(param.getValue()).append(';');
+
+    HttpURLConnection con = open(baseUrl + "/render/" + reportName);
+    con.setRequestMethod("POST");
+    con.setDoOutput(true);
+    con.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+    Writer out = new OutputStreamWriter(con.getOutputStream(), "UTF-8");
+    try
+    {
+      out.write(body.toString());
+    }
+    finally
+    {
+      out.close();
+    }
+
+    int status = read(con, null);
+    return status==200 ? con.getHeaderField(ReportFacade.DOCUMENT_HEADER) : null;
+  }
+
+  /**
+   * View a rendered document as HTML.
+   *
+   * @param imageUrls receives the images referenced from the document
+   * @return true if it succeeded
+   */
+  public boolean view(String reportName, String documentId, Collection<String> imageUrls) throws IOException
+  {
+    HttpURLConnection con = open(baseUrl + "/render/" + reportName + "?document=" + documentId);
+    ByteArrayOutputStream html = new ByteArrayOutputStream();
+    if(read(con, html)!=200)
+      return false;
+
+    Matcher matcher = IMAGE_URL.matcher(html.toString("UTF-8"));
+    while(matcher.find())
+      imageUrls.add(matcher.group(1).replace("&amp;", "&"));
+    return true;
+  }
+
+  public boolean config() throws IOException
+  {
+    return read(open(baseUrl + "/config"), null)==200;
+  }
+
+  public boolean get(String url) throws IOException
+  {
+    return read(open(url), null)==200;
+  }
+
+  private static HttpURLConnection open(String url) throws IOException
+  {
+    HttpURLConnection con = (HttpURLConnection)new URL(url).openConnection();
+    con.setConnectTimeout(10 * 1000);
+    con.setReadTimeout(10 * 60 * 1000);
+    return con;
+  }
+
+  /* the body is always read to the end, so that the connection can be reused */
+  private static int read(HttpURLConnection con, OutputStream sink) throws IOException
+  {
+    int status = con.getResponseCode();
+    InputStream in = status >= 400 ? con.getErrorStream() : con.getInputStream();
+    if(in!=null)
+    {
+      try
+      {
+        byte[] buffer = new byte[8192];
+        int n;
+        while((n = in.read(buffer)) != -1)
+        {
+          if(sink!=null && status < 400)
+            sink.write(buffer, 0, n);
+        }
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    return status;
+  }
+}
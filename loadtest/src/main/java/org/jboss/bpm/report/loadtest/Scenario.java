@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * A number of clients issuing a weighted mix of requests for a while.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class Scenario
+{
+  private String name;
+  private int concurrency;
+  private long duration;
+  private long rampup;
+  private Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+  private int totalWeight;
+
+  /**
+   * Read the scenario from <code>&lt;name&gt;.concurrency</code>,
+   * <code>&lt;name&gt;.duration</code>, <code>&lt;name&gt;.rampup</code>
+   * and <code>&lt;name&gt;.mix</code>.
+   */
+  public static Scenario load(String name, Properties props)
+  {
+    Scenario scenario = new Scenario();
+    scenario.name = name;
+    scenario.concurrency = Integer.parseInt(props.getProperty(name + ".concurrency", "1").trim());
+    scenario.duration = Long.parseLong(props.getProperty(name + ".duration", "60").trim());
+    scenario.rampup = Long.parseLong(props.getProperty(name + ".rampup", "0").trim());
+
+    String mix = props.getProperty(name + ".mix");
+    if(null==mix)
+      throw new IllegalArgumentException("Scenario " + name + " has no request mix");
+
+    StringTokenizer tokens = new StringTokenizer(mix, ",");
+    while(tokens.hasMoreTokens())
+    {
+      String[] entry = tokens.nextToken().trim().split(":");
+      int weight = entry.length > 1 ? Integer.parseInt(entry[1].trim()) : 1;
+      if(weight > 0)
+      {
+        scenario.mix.put(Operation.forKey(entry[0].trim()), weight);
+        scenario.totalWeight += weight;
+      }
+    }
+
+    if(scenario.totalWeight==0)
+      throw new IllegalArgumentException("Scenario " + name + " has an empty request mix");
+    return scenario;
+  }
+
+  /**
+   * The next operation, by weight.
+   */
+  public Operation pick(Random random)
+  {
+    int n = random.nextInt(totalWeight);
+    for(Map.Entry<Operation, Integer> entry : mix.entrySet())
+    {
+      n -= entry.getValue();
+      if(n < 0)
+        return entry.getKey();
+    }
+    throw new IllegalStateException("Weights don't add up");
+  }
+
+  public String getName()
+  {
+    return name;
+  }
+
+  public int getConcurrency()
+  {
+    return concurrency;
+  }
+
+  /**
+   * Seconds of measurement
+   */
+  public long getDuration()
+  {
+    return duration;
+  }
+
+  /**
+   * Seconds of load before measuring starts
+   */
+  public long getRampup()
+  {
+    return rampup;
+  }
+
+  public String toString()
+  {
+    return name + " (" + concurrency + " clients, " + duration + " s, mix " + mix + ")";
+  }
+}
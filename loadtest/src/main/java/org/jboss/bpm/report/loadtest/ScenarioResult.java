@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2006, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.bpm.report.loadtest;
+
+import org.jboss.bpm.report.metrics.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and errors of a scenario, per operation.
+ *
+ * @author Heiko.Braun <heiko.braun@jboss.com>
+ */
+public class ScenarioResult
+{
+  private Scenario scenario;
+  private Map<Operation, LatencyHistogram> latencies = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+  private Map<Operation, AtomicLong> errors = new EnumMap<Operation, AtomicLong>(Operation.class);
+  private LatencyHistogram total = new LatencyHistogram();
+  private AtomicLong totalErrors = new AtomicLong();
+
+  private long elapsed;
+  private long peakHeap;
+
+  public ScenarioResult(Scenario scenario)
+  {
+    this.scenario = scenario;
+    for(Operation op : Operation.values())
+    {
+      latencies.put(op, new LatencyHistogram());
+      errors.put(op, new AtomicLong());
+    }
+  }
+
+  public void record(Operation op, long nanos, boolean success)
+  {
+    latencies.get(op).record(nanos);
+    total.record(nanos);
+    if(!success)
+    {
+      errors.get(op).incrementAndGet();
+      totalErrors.incrementAndGet();
+    }
+  }
+
+  /**
+   * @param elapsed measured time in ms
+   * @param peakHeap highest heap usage in bytes, sampled while measuring
+   */
+  public void finish(long elapsed, long peakHeap)
+  {
+    this.elapsed = elapsed;
+    this.peakHeap = peakHeap;
+  }
+
+  public Scenario getScenario()
+  {
+    return scenario;
+  }
+
+  public void print(PrintStream out)
+  {
+    out.println();
+    out.println("Scenario " + scenario);
+    out.println(String.format("  %-18s %9s %8s %8s %9s %9s %9s %9s",
+        "operation", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+
+    for(Operation op : Operation.values())
+    {
+      if(latencies.get(op).getCount() > 0)
+        print(out, op.getKey(), latencies.get(op), errors.get(op).get());
+    }
+    print(out, "total", total, totalErrors.get());
+
+    out.println(String.format("  error rate %.2f%%, peak heap %d MB",
+        total.getCount() > 0 ? 100.0 * totalErrors.get() / total.getCount() : 0,
+        peakHeap / (1024 * 1024)));
+  }
+
+  private void print(PrintStream out, String label, LatencyHistogram histogram, long errorCount)
+  {
+    out.println(String.format("  %-18s %9d %8d %8.1f %9.1f %9.1f %9.1f %9.1f",
+        label, histogram.getCount(), errorCount,
+        elapsed > 0 ? histogram.getCount() * 1000.0 / elapsed : 0,
+        histogram.getPercentile(0.50), histogram.getPercentile(0.95),
+        histogram.getPercentile(0.99), histogram.getMax()));
+  }
+}
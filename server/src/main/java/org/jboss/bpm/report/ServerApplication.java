@@ -22,7 +22,9 @@
 package org.jboss.bpm.report;
 
 import javax.ws.rs.core.Application;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -32,11 +34,35 @@ import java.util.Set;
  */
 public class ServerApplication extends Application
 {
+   /* facades of this web application, released by {@link ServerLifecycle} */
+   private static final List<ReportFacade> facades = new ArrayList<ReportFacade>();
+
    HashSet<Object> singletons = new HashSet<Object>();
 
    public ServerApplication()
    {            
-      singletons.add(new ReportFacade());
+      ReportFacade facade = new ReportFacade();
+      synchronized(facades)
+      {
+         facades.add(facade);
+      }
+      singletons.add(facade);
+   }
+
+   /**
+    * Destroy the facades created so far, stopping the render workers.
+    */
+   static void destroy()
+   {
+      List<ReportFacade> released;
+      synchronized(facades)
+      {
+         released = new ArrayList<ReportFacade>(facades);
+         facades.clear();
+      }
+
+      for(ReportFacade facade : released)
+         facade.destroy();
    }
 
    @Override